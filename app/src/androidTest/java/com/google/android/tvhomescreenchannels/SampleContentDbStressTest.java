@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.tvhomescreenchannels;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hammers an instance of "SampleContentDb" from several threads at once, then checks that what it
+ * answers matches what a new instance reads back from the same database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SampleContentDbStressTest {
+    private static final String DATABASE_NAME = "sample_content_stress_test.db";
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 500;
+    private static final int CLIPS = 32;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private Context mContext;
+    private SampleContentDb mSampleContentDb;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mSampleContentDb = new SampleContentDb(mContext, DATABASE_NAME, false);
+    }
+
+    @After
+    public void tearDown() {
+        mSampleContentDb.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void concurrentWrites_matchDatabase() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Set<String>>> futures = new ArrayList<>(THREADS);
+        Set<String> removedClips = new HashSet<>();
+        try {
+            for (int thread = 0; thread < THREADS; ++thread) {
+                final Random random = new Random(thread);
+                futures.add(executor.submit(new Callable<Set<String>>() {
+                    @Override
+                    public Set<String> call() throws Exception {
+                        start.await();
+                        return hammer(random);
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Set<String>> future : futures) {
+                removedClips.addAll(future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // A new instance has nothing cached, so it answers from the database.
+        SampleContentDb database = new SampleContentDb(mContext, DATABASE_NAME, false);
+        try {
+            for (int i = 0; i < CLIPS; ++i) {
+                String clipId = getClipId(i);
+                assertEquals(clipId, removedClips.contains(clipId),
+                        database.isClipRemoved(clipId));
+                assertEquals(clipId, database.isClipRemoved(clipId),
+                        mSampleContentDb.isClipRemoved(clipId));
+                assertEquals(clipId, database.getClipProgress(clipId),
+                        mSampleContentDb.getClipProgress(clipId));
+            }
+        } finally {
+            database.close();
+        }
+    }
+
+    /**
+     * Mixes removals, single and batched progress writes, progress deletes and reads of random
+     * clips, and returns the clips it removed. A removed clip must stay removed.
+     */
+    private Set<String> hammer(Random random) {
+        Set<String> removedClips = new HashSet<>();
+        for (int i = 0; i < ITERATIONS; ++i) {
+            String clipId = getClipId(random.nextInt(CLIPS));
+            switch (random.nextInt(6)) {
+                case 0:
+                    mSampleContentDb.addRemovedClip(clipId);
+                    removedClips.add(clipId);
+                    break;
+                case 1:
+                    mSampleContentDb.updateClipProgress(clipId, random.nextInt(1000000));
+                    break;
+                case 2:
+                    Map<String, Long> clipsProgress = new HashMap<>();
+                    for (int j = 0; j < 4; ++j) {
+                        clipsProgress.put(getClipId(random.nextInt(CLIPS)),
+                                (long) random.nextInt(1000000));
+                    }
+                    mSampleContentDb.updateClipProgress(clipsProgress);
+                    break;
+                case 3:
+                    mSampleContentDb.deleteClipProgress(clipId);
+                    break;
+                case 4:
+                    mSampleContentDb.isClipRemoved(clipId);
+                    break;
+                default:
+                    mSampleContentDb.getClipProgress(clipId);
+                    break;
+            }
+            for (String removedClip : removedClips) {
+                assertTrue(removedClip, mSampleContentDb.isClipRemoved(removedClip));
+            }
+        }
+        return removedClips;
+    }
+
+    private static String getClipId(int index) {
+        return "clip" + index;
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.tvhomescreenchannels;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays the part of a player against "VideoCacheProxy", with a loopback origin server that counts
+ * the requests the proxy makes to it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class VideoCacheProxyTest {
+    private static final int BLOCK_SIZE = VideoCacheProxy.BLOCK_SIZE;
+    private static final long CACHED_PREFIX_SIZE = VideoCacheProxy.CACHED_PREFIX_SIZE;
+    // Longer than the cached prefix and not a whole number of blocks.
+    private static final int VIDEO_LENGTH = (int) CACHED_PREFIX_SIZE + 2 * BLOCK_SIZE + 1234;
+
+    private final byte[] mVideo = new byte[VIDEO_LENGTH];
+    private File mCacheDirectory;
+    private OriginServer mOrigin;
+    private VideoCacheProxy mProxy;
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < mVideo.length; ++i) {
+            mVideo[i] = (byte) (i * 31 + i / BLOCK_SIZE);
+        }
+        mCacheDirectory = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "video_cache_test");
+        deleteCacheDirectory();
+        mOrigin = new OriginServer(mVideo);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (mProxy != null) {
+            mProxy.close();
+        }
+        mOrigin.close();
+        deleteCacheDirectory();
+    }
+
+    @Test
+    public void secondRead_ofCachedBlocks_makesNoOriginRequests() throws IOException {
+        mProxy = new VideoCacheProxy(mCacheDirectory, VideoCacheProxy.CACHE_SIZE);
+        String proxyUrl = getProxyUrl("video");
+
+        assertArrayEquals(range(0, CACHED_PREFIX_SIZE - 1),
+                read(proxyUrl, 0, CACHED_PREFIX_SIZE - 1));
+        assertTrue(mOrigin.getRequestCount() > 0);
+
+        mOrigin.resetRequestCount();
+        assertArrayEquals(range(0, CACHED_PREFIX_SIZE - 1),
+                read(proxyUrl, 0, CACHED_PREFIX_SIZE - 1));
+        assertArrayEquals(range(BLOCK_SIZE / 2, 3 * BLOCK_SIZE / 2),
+                read(proxyUrl, BLOCK_SIZE / 2, 3 * BLOCK_SIZE / 2));
+        assertEquals(0, mOrigin.getRequestCount());
+    }
+
+    @Test
+    public void rangeRequests_acrossBlockBoundaries_returnTheVideosBytes() throws IOException {
+        mProxy = new VideoCacheProxy(mCacheDirectory, VideoCacheProxy.CACHE_SIZE);
+        String proxyUrl = getProxyUrl("video");
+        long[][] ranges = {
+                // Within the first block.
+                {10, 100},
+                // Ending on the last byte of a block, then starting on the first of the next.
+                {0, BLOCK_SIZE - 1},
+                {BLOCK_SIZE, 2 * BLOCK_SIZE - 1},
+                // Across one and several block boundaries.
+                {BLOCK_SIZE - 100, BLOCK_SIZE + 100},
+                {BLOCK_SIZE / 2, 4 * BLOCK_SIZE + BLOCK_SIZE / 2},
+                // Across the end of the cached prefix, which is streamed from the origin.
+                {CACHED_PREFIX_SIZE - 100, CACHED_PREFIX_SIZE + 100},
+                // Past the cached prefix, and to the end of the video.
+                {CACHED_PREFIX_SIZE + BLOCK_SIZE + 5, VIDEO_LENGTH - 1},
+                {VIDEO_LENGTH - 10, -1},
+        };
+        for (long[] range : ranges) {
+            long end = range[1] >= 0 ? range[1] : VIDEO_LENGTH - 1;
+            HttpURLConnection connection = open(proxyUrl, range[0], range[1]);
+            try {
+                assertEquals(HttpURLConnection.HTTP_PARTIAL, connection.getResponseCode());
+                assertEquals("bytes " + range[0] + "-" + end + "/" + VIDEO_LENGTH,
+                        connection.getHeaderField("Content-Range"));
+                assertArrayEquals(Arrays.toString(range), range(range[0], end),
+                        readAll(connection.getInputStream()));
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        HttpURLConnection connection = open(proxyUrl, 0, -1);
+        try {
+            assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+            assertArrayEquals(mVideo, readAll(connection.getInputStream()));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void trimCache_keepsTheCacheUnderItsSize() throws IOException {
+        long cacheSize = 3L * BLOCK_SIZE + BLOCK_SIZE / 2;
+        mProxy = new VideoCacheProxy(mCacheDirectory, cacheSize);
+        String firstProxyUrl = getProxyUrl("first");
+        String secondProxyUrl = getProxyUrl("second");
+
+        read(firstProxyUrl, 0, CACHED_PREFIX_SIZE - 1);
+        assertTrue(getCacheDirectorySize() <= cacheSize);
+        read(secondProxyUrl, 0, CACHED_PREFIX_SIZE - 1);
+        assertTrue(getCacheDirectorySize() <= cacheSize);
+
+        // The last blocks read are the ones kept, so they are served without the origin.
+        mOrigin.resetRequestCount();
+        assertArrayEquals(range(CACHED_PREFIX_SIZE - BLOCK_SIZE, CACHED_PREFIX_SIZE - 1),
+                read(secondProxyUrl, CACHED_PREFIX_SIZE - BLOCK_SIZE, CACHED_PREFIX_SIZE - 1));
+        assertEquals(0, mOrigin.getRequestCount());
+        // The first blocks read are gone, so they are fetched again.
+        assertArrayEquals(range(0, BLOCK_SIZE - 1), read(firstProxyUrl, 0, BLOCK_SIZE - 1));
+        assertTrue(mOrigin.getRequestCount() > 0);
+        assertTrue(getCacheDirectorySize() <= cacheSize);
+    }
+
+    private String getProxyUrl(String path) {
+        return mProxy.getProxyUri(mOrigin.getUrl(path)).toString();
+    }
+
+    private byte[] range(long start, long end) {
+        return Arrays.copyOfRange(mVideo, (int) start, (int) end + 1);
+    }
+
+    private static byte[] read(String url, long start, long end) throws IOException {
+        HttpURLConnection connection = open(url, start, end);
+        try {
+            return readAll(connection.getInputStream());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Opens a request for the bytes "start" to "end" of "url", or to its end if "end" is
+     * negative. The whole video is requested without a range.
+     */
+    private static HttpURLConnection open(String url, long start, long end) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (start > 0 || end >= 0) {
+            connection.setRequestProperty("Range",
+                    "bytes=" + start + "-" + (end >= 0 ? end : ""));
+        }
+        return connection;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private long getCacheDirectorySize() {
+        long size = 0;
+        File[] files = mCacheDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    private void deleteCacheDirectory() {
+        File[] files = mCacheDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mCacheDirectory.delete();
+    }
+
+    /**
+     * Serves "video" at every path with range support, one connection at a time, and counts the
+     * requests it answers.
+     */
+    private static final class OriginServer {
+        private final byte[] mVideo;
+        private final ServerSocket mServerSocket;
+        private final AtomicInteger mRequestCount = new AtomicInteger();
+
+        OriginServer(byte[] video) throws IOException {
+            mVideo = video;
+            mServerSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!mServerSocket.isClosed()) {
+                        try (Socket socket = mServerSocket.accept()) {
+                            serve(socket);
+                        } catch (IOException e) {
+                            // Closed by the test or by the proxy.
+                        }
+                    }
+                }
+            }, "OriginServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        String getUrl(String path) {
+            return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/" + path;
+        }
+
+        int getRequestCount() {
+            return mRequestCount.get();
+        }
+
+        void resetRequestCount() {
+            mRequestCount.set(0);
+        }
+
+        void close() throws IOException {
+            mServerSocket.close();
+        }
+
+        private void serve(Socket socket) throws IOException {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            if (reader.readLine() == null) {
+                return;
+            }
+            mRequestCount.incrementAndGet();
+            long start = 0;
+            long end = mVideo.length - 1;
+            boolean isRange = false;
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                if (line.toLowerCase().startsWith("range: bytes=")) {
+                    String[] bounds = line.substring("range: bytes=".length()).split("-", -1);
+                    start = Long.parseLong(bounds[0].trim());
+                    if (!bounds[1].trim().isEmpty()) {
+                        end = Math.min(Long.parseLong(bounds[1].trim()), mVideo.length - 1);
+                    }
+                    isRange = true;
+                }
+            }
+            StringBuilder headers = new StringBuilder("HTTP/1.1 ")
+                    .append(isRange ? "206 Partial Content" : "200 OK").append("\r\n")
+                    .append("Content-Type: video/mp4\r\n")
+                    .append("Content-Length: ").append(end - start + 1).append("\r\n");
+            if (isRange) {
+                headers.append("Content-Range: bytes ").append(start).append("-").append(end)
+                        .append("/").append(mVideo.length).append("\r\n");
+            }
+            headers.append("Connection: close\r\n\r\n");
+            OutputStream out = socket.getOutputStream();
+            out.write(headers.toString().getBytes(StandardCharsets.ISO_8859_1));
+            out.write(mVideo, (int) start, (int) (end - start + 1));
+            out.flush();
+        }
+    }
+}
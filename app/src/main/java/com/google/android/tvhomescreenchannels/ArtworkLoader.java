@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.tvhomescreenchannels;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.support.media.tv.TvContractCompat;
+
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.DecodeFormat;
+import com.bumptech.glide.request.RequestOptions;
+
+/**
+ * Builds the Glide requests for every image the app shows, each decoded at the size of one of the
+ * "Bucket"s. Requests for the same url in the same bucket are identical, so Glide decodes the
+ * image once and serves every other caller from its memory cache.
+ */
+public final class ArtworkLoader {
+    // Backgrounds are dimmed and stretched to the window, so half the display size is enough.
+    private static final int BACKGROUND_DOWNSAMPLE_FACTOR = 2;
+
+    /**
+     * The sizes images are decoded at.
+     */
+    public enum Bucket {
+        // The image of a card, at the size of the card for the clip's aspect ratio.
+        CARD,
+        // The background of the browse screen.
+        BACKGROUND,
+        // The art of the playback session. It is always the card image of the clip played, so it
+        // shares the decode of "CARD" rather than decoding the same url at another size.
+        SESSION_ART,
+        // The poster art served to the launcher, at the clip's aspect ratio.
+        POSTER
+    }
+
+    private ArtworkLoader() {
+    }
+
+    /**
+     * Requests the card image of "clip" in "bucket".
+     */
+    public static RequestBuilder<Bitmap> load(RequestManager requestManager, Resources resources,
+            Clip clip, Bucket bucket) {
+        return load(requestManager, resources, clip.getCardImageUrl(), clip.getAspectRatio(),
+                bucket);
+    }
+
+    /**
+     * Requests the image at "url" in "bucket". "aspectRatio" is one of the ASPECT_RATIO
+     * constants of "TvContractCompat.PreviewProgramColumns" and only matters for cards.
+     */
+    public static RequestBuilder<Bitmap> load(RequestManager requestManager, Resources resources,
+            String url, int aspectRatio, Bucket bucket) {
+        return requestManager
+                .asBitmap()
+                .load(url)
+                .apply(new RequestOptions()
+                        .override(getWidth(resources, aspectRatio, bucket),
+                                getHeight(resources, bucket))
+                        .centerCrop()
+                        .format(DecodeFormat.PREFER_RGB_565));
+    }
+
+    public static int getWidth(Resources resources, int aspectRatio, Bucket bucket) {
+        if (bucket == Bucket.BACKGROUND) {
+            return resources.getDisplayMetrics().widthPixels / BACKGROUND_DOWNSAMPLE_FACTOR;
+        } else if (bucket == Bucket.POSTER) {
+            return Math.round(resources.getDimensionPixelSize(R.dimen.poster_art_height)
+                    * getWidthMultiplier(aspectRatio));
+        }
+        return Math.round(resources.getDimensionPixelSize(R.dimen.card_width)
+                * getWidthMultiplier(aspectRatio));
+    }
+
+    public static int getHeight(Resources resources, Bucket bucket) {
+        if (bucket == Bucket.BACKGROUND) {
+            return resources.getDisplayMetrics().heightPixels / BACKGROUND_DOWNSAMPLE_FACTOR;
+        } else if (bucket == Bucket.POSTER) {
+            return resources.getDimensionPixelSize(R.dimen.poster_art_height);
+        }
+        return resources.getDimensionPixelSize(R.dimen.card_height);
+    }
+
+    private static float getWidthMultiplier(int aspectRatio) {
+        switch (aspectRatio) {
+            case TvContractCompat.PreviewProgramColumns.ASPECT_RATIO_16_9:
+                return 16.0f / 9.0f;
+            case TvContractCompat.PreviewProgramColumns.ASPECT_RATIO_3_2:
+                return 3.0f / 2.0f;
+            case TvContractCompat.PreviewProgramColumns.ASPECT_RATIO_2_3:
+                return 2.0f / 3.0f;
+            case TvContractCompat.PreviewProgramColumns.ASPECT_RATIO_4_3:
+                return 4.0f / 3.0f;
+            case TvContractCompat.PreviewProgramColumns.ASPECT_RATIO_1_1:
+            default:
+                return 1.0f;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.tvhomescreenchannels;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.request.FutureTarget;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * JobScheduler task that warms Glide's disk cache with the card images and backgrounds of the
+ * catalog while the device is idle and charging, so that the browse rows, the playback session
+ * art and the poster art published to the home screen show without waiting on the network.
+ * The clips of the published channels are fetched first, in channel order, followed by the clips
+ * of the other playlists, until half of the disk cache is filled.
+ */
+public class ArtworkPrefetchJobService extends JobService {
+    private static final String TAG = "ArtworkPrefetchJob";
+    private static final int JOB_ID = 3;
+    private static final long PERIOD_MILLIS = TimeUnit.DAYS.toMillis(1);
+    // The share of Glide's disk cache, as a divisor, filled by this job. The rest is left to
+    // browsing.
+    private static final int DISK_CACHE_DIVISOR = 2;
+    private static final long DOWNLOAD_TIMEOUT_SECONDS = 30;
+    private PrefetchTask mPrefetchTask;
+
+    /**
+     * Schedules the periodic prefetch unless it's already scheduled.
+     */
+    static void schedule(Context context) {
+        JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+        if (scheduler.getPendingJob(JOB_ID) != null) {
+            return;
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, ArtworkPrefetchJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setPeriodic(PERIOD_MILLIS)
+                .setPersisted(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters jobParameters) {
+        mPrefetchTask = new PrefetchTask(jobParameters);
+        // Off the serial executor, so that a long prefetch doesn't hold up the app's other tasks.
+        mPrefetchTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters jobParameters) {
+        if (mPrefetchTask != null) {
+            mPrefetchTask.cancel(true);
+            mPrefetchTask = null;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the artwork urls of the catalog, those of the published channels first.
+     */
+    private static Set<String> getArtworkUrls() {
+        List<Playlist> published = SampleClipApi.getDesiredPublishedChannelSet();
+        List<Playlist> playlists = new ArrayList<>(published);
+        for (Playlist playlist : SampleClipApi.getPlaylistBlocking()) {
+            if (!published.contains(playlist)) {
+                playlists.add(playlist);
+            }
+        }
+        Set<String> urls = new LinkedHashSet<>();
+        for (Playlist playlist : playlists) {
+            // The card image is also the playback session art and the published poster art.
+            for (Clip clip : playlist.getClips()) {
+                addUrl(urls, clip.getCardImageUrl());
+            }
+            for (Clip clip : playlist.getClips()) {
+                addUrl(urls, clip.getBackgroundImageUrl());
+            }
+        }
+        return urls;
+    }
+
+    private static void addUrl(Set<String> urls, String url) {
+        if (!TextUtils.isEmpty(url)) {
+            urls.add(url);
+        }
+    }
+
+    private class PrefetchTask extends AsyncTask<Void, Void, Void> {
+        private final JobParameters mJobParameters;
+        private final RequestManager mRequestManager;
+
+        PrefetchTask(JobParameters jobParameters) {
+            mJobParameters = jobParameters;
+            mRequestManager = Glide.with(getApplicationContext());
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            long budget = SampleGlideModule.getDiskCacheSize(getApplicationContext())
+                    / DISK_CACHE_DIVISOR;
+            long bytes = 0;
+            int count = 0;
+            for (String url : getArtworkUrls()) {
+                if (isCancelled() || bytes >= budget) {
+                    break;
+                }
+                File file = download(url);
+                if (file != null) {
+                    bytes += file.length();
+                    ++count;
+                }
+            }
+            Log.d(TAG, "Prefetched " + count + " images, " + bytes + " bytes");
+            return null;
+        }
+
+        /**
+         * Fetches "url" into the disk cache, or returns the cached file if it's already there.
+         */
+        private File download(String url) {
+            FutureTarget<File> target = mRequestManager.downloadOnly().load(url).submit();
+            try {
+                return target.get(DOWNLOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException | TimeoutException e) {
+                Log.e(TAG, "Prefetch failed " + url, e);
+                return null;
+            } finally {
+                mRequestManager.clear(target);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            mPrefetchTask = null;
+            jobFinished(mJobParameters, false);
+        }
+    }
+}
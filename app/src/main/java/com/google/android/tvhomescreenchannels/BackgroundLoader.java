@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.tvhomescreenchannels;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.support.annotation.Nullable;
+import android.support.v17.leanback.app.BackgroundManager;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.target.SimpleTarget;
+import com.bumptech.glide.request.transition.Transition;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the backgrounds of the browse screen in the "BACKGROUND" bucket and keeps the most recently
+ * used and prefetched ones ready to draw, so that a background that was prefetched is set on the
+ * BackgroundManager without decoding anything.
+ * It is only used on the main thread.
+ */
+final class BackgroundLoader {
+    // The number of decoded backgrounds kept, besides the one shown.
+    private static final int CACHE_SIZE = 6;
+    // Longer than the cross-fade of the BackgroundManager, which draws the previous background
+    // until it has faded out.
+    private static final long CROSS_FADE_MS = 1000;
+
+    private final Activity mActivity;
+    private final BackgroundManager mBackgroundManager;
+    private final LruCache<String, BackgroundTarget> mTargets =
+            new LruCache<String, BackgroundTarget>(CACHE_SIZE) {
+                @Override
+                protected void entryRemoved(boolean evicted, String url,
+                        BackgroundTarget oldTarget, BackgroundTarget newTarget) {
+                    oldTarget.mEvicted = true;
+                    releaseIfUnused(oldTarget);
+                }
+            };
+    private final Handler mHandler = new Handler();
+    // The backgrounds being faded out, once for every time each was replaced.
+    private final List<BackgroundTarget> mFadingTargets = new ArrayList<>();
+    private BackgroundTarget mShownTarget;
+    private String mWantedUrl;
+
+    BackgroundLoader(Activity activity, BackgroundManager backgroundManager) {
+        mActivity = activity;
+        mBackgroundManager = backgroundManager;
+    }
+
+    /**
+     * Shows the background at "url", or no background if it is null. A background that is not
+     * ready yet is shown as soon as it has loaded, unless another one was asked for meanwhile.
+     */
+    void show(@Nullable String url) {
+        mWantedUrl = url;
+        if (url == null) {
+            setShownTarget(null);
+            return;
+        }
+        BackgroundTarget target = load(url);
+        if (target.mDrawable != null) {
+            setShownTarget(target);
+        }
+    }
+
+    /**
+     * Loads the background at "url" ahead of it being shown.
+     */
+    void prefetch(String url) {
+        load(url);
+    }
+
+    /**
+     * Releases every background, once the screen is gone.
+     */
+    void release() {
+        mWantedUrl = null;
+        mHandler.removeCallbacksAndMessages(null);
+        List<BackgroundTarget> fadingTargets = new ArrayList<>(mFadingTargets);
+        mFadingTargets.clear();
+        mTargets.evictAll();
+        for (BackgroundTarget target : fadingTargets) {
+            release(target);
+        }
+        if (mShownTarget != null) {
+            release(mShownTarget);
+            mShownTarget = null;
+        }
+    }
+
+    private BackgroundTarget load(String url) {
+        BackgroundTarget target = mTargets.get(url);
+        if (target == null) {
+            target = new BackgroundTarget(url);
+            mTargets.put(url, target);
+            // The aspect ratio only matters for cards.
+            ArtworkLoader.load(Glide.with(mActivity), mActivity.getResources(), url, 0,
+                    ArtworkLoader.Bucket.BACKGROUND)
+                    .into(target);
+        }
+        return target;
+    }
+
+    private void setShownTarget(@Nullable BackgroundTarget target) {
+        mBackgroundManager.setDrawable(target != null ? target.mDrawable : null);
+        final BackgroundTarget previousTarget = mShownTarget;
+        mShownTarget = target;
+        if (previousTarget != null && previousTarget != target) {
+            // It is still drawn while it fades out, so it is released once the fade is done.
+            mFadingTargets.add(previousTarget);
+            mHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    mFadingTargets.remove(previousTarget);
+                    releaseIfUnused(previousTarget);
+                }
+            }, CROSS_FADE_MS);
+        }
+    }
+
+    /**
+     * Releases "target" if it was evicted and is neither shown nor fading out.
+     */
+    private void releaseIfUnused(BackgroundTarget target) {
+        if (target.mEvicted && target != mShownTarget && !mFadingTargets.contains(target)) {
+            release(target);
+        }
+    }
+
+    private void release(BackgroundTarget target) {
+        // Returns the bitmap to Glide, so it must no longer be drawn.
+        Glide.with(mActivity).clear(target);
+    }
+
+    private final class BackgroundTarget extends SimpleTarget<Bitmap> {
+        final String mUrl;
+        Drawable mDrawable;
+        boolean mEvicted;
+
+        BackgroundTarget(String url) {
+            mUrl = url;
+        }
+
+        @Override
+        public void onResourceReady(Bitmap bitmap, Transition<? super Bitmap> transition) {
+            mDrawable = new BitmapDrawable(mActivity.getResources(), bitmap);
+            if (!mEvicted && TextUtils.equals(mUrl, mWantedUrl)) {
+                setShownTarget(this);
+            }
+        }
+
+        @Override
+        public void onLoadCleared(@Nullable Drawable placeholder) {
+            mDrawable = null;
+        }
+    }
+}
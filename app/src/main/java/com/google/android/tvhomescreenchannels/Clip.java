@@ -26,6 +26,11 @@ import java.net.URISyntaxException;
  * Clip class represents video entity with title, description, image thumbs and video url.
  */
 public class Clip implements Parcelable {
+    private static final long FINGERPRINT_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FINGERPRINT_PRIME = 0x100000001b3L;
+    // Changes whenever the columns published for a clip are derived differently, so that every
+    // program is rewritten. Version 2 publishes the poster art from "PosterArtProvider".
+    private static final int PUBLISHED_FORMAT_VERSION = 2;
     public static final Parcelable.Creator CREATOR = new Parcelable.Creator() {
         public Clip createFromParcel(Parcel in) {
             return new Clip(in);
@@ -153,6 +158,36 @@ public class Clip implements Parcelable {
         return mAspectRatio;
     }
 
+    /**
+     * Returns a hash of every field of this clip that is published to the TV provider. A program
+     * published with a different fingerprint is out of date.
+     */
+    long getFingerprint() {
+        long hash = FINGERPRINT_OFFSET_BASIS;
+        hash = addToFingerprint(hash, Integer.toString(PUBLISHED_FORMAT_VERSION));
+        hash = addToFingerprint(hash, mClipId);
+        hash = addToFingerprint(hash, mContentId);
+        hash = addToFingerprint(hash, mTitle);
+        hash = addToFingerprint(hash, mDescription);
+        hash = addToFingerprint(hash, mCardImageUrl);
+        hash = addToFingerprint(hash, mPreviewVideoUrl);
+        hash = addToFingerprint(hash, mIsVideoProtected ? "1" : "0");
+        hash = addToFingerprint(hash, Integer.toString(mAspectRatio));
+        return hash;
+    }
+
+    /**
+     * Folds "value" and a separator into "hash" with 64-bit FNV-1a.
+     */
+    private static long addToFingerprint(long hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); ++i) {
+                hash = (hash ^ value.charAt(i)) * FINGERPRINT_PRIME;
+            }
+        }
+        return (hash ^ 0xffff) * FINGERPRINT_PRIME;
+    }
+
     @Override
     public int describeContents() {
         return 0;
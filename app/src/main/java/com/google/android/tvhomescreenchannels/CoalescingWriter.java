@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.tvhomescreenchannels;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.WorkerThread;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the latest value of each key in memory and hands the pending values to a "Flusher" in a
+ * single batch, so a burst of updates costs one write per key. Pending values are flushed
+ * "flushDelayMs" after the first of them was put, or earlier by "flush()".
+ * Flushes run one after another on a background thread of the writer's own, so a later value is
+ * never overwritten by an earlier one and no flush waits behind unrelated AsyncTasks. It is safe
+ * to use from any thread.
+ */
+final class CoalescingWriter<K, V> {
+    /**
+     * Writes a batch of values.
+     */
+    interface Flusher<K, V> {
+        @WorkerThread
+        void write(Map<K, V> values);
+    }
+
+    private final long mFlushDelayMs;
+    private final Flusher<K, V> mFlusher;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    // Values that have not been written yet, guarded by "this".
+    private HashMap<K, V> mPendingValues = new HashMap<>();
+
+    CoalescingWriter(long flushDelayMs, Flusher<K, V> flusher) {
+        mFlushDelayMs = flushDelayMs;
+        mFlusher = flusher;
+    }
+
+    /**
+     * Sets the value of "key", replacing any value not yet written.
+     */
+    synchronized void put(K key, V value) {
+        if (mPendingValues.isEmpty()) {
+            mHandler.postDelayed(mFlushRunnable, mFlushDelayMs);
+        }
+        mPendingValues.put(key, value);
+    }
+
+    /**
+     * Drops any value of "key" not yet written, then runs "runnable" on the background thread
+     * after every flush already started, so that it cannot be undone by one of them.
+     */
+    void remove(K key, Runnable runnable) {
+        synchronized (this) {
+            mPendingValues.remove(key);
+        }
+        mExecutor.execute(runnable);
+    }
+
+    /**
+     * Writes the pending values on the background thread.
+     */
+    void flush() {
+        final Map<K, V> values;
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            if (mPendingValues.isEmpty()) {
+                return;
+            }
+            values = mPendingValues;
+            mPendingValues = new HashMap<>();
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mFlusher.write(values);
+            }
+        });
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.tvhomescreenchannels;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.v17.leanback.media.PlayerAdapter;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.DefaultRenderersFactory;
+import com.google.android.exoplayer2.ExoPlayerFactory;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.ext.leanback.LeanbackPlayerAdapter;
+import com.google.android.exoplayer2.source.ExtractorMediaSource;
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.source.dash.DashMediaSource;
+import com.google.android.exoplayer2.source.dash.DefaultDashChunkSource;
+import com.google.android.exoplayer2.source.hls.HlsMediaSource;
+import com.google.android.exoplayer2.trackselection.AdaptiveTrackSelection;
+import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
+import com.google.android.exoplayer2.util.Util;
+import com.google.android.exoplayer2.video.VideoListener;
+
+/**
+ * Plays videos with ExoPlayer through its leanback extension. DASH and HLS videos adapt their
+ * tracks to the measured bandwidth, and the buffer durations are set by the constants below.
+ * Other videos are loaded through "VideoCacheProxy", so that their start is cached on disk.
+ */
+final class ExoPlayerVideoPlayer implements VideoPlayer {
+    private static final String USER_AGENT = "TvHomeScreenChannels";
+    // The buffer is refilled once it drops under the minimum, up to the maximum.
+    private static final int MIN_BUFFER_MS = 15000;
+    private static final int MAX_BUFFER_MS = 30000;
+    // The buffer needed to start playing, and to resume after a rebuffer.
+    private static final int BUFFER_FOR_PLAYBACK_MS = 1000;
+    private static final int BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS = 3000;
+    private static final int UPDATE_PERIOD_MS = 16;
+
+    private final Context mContext;
+    private final PlaybackMetrics mMetrics = new PlaybackMetrics(VideoPlayerFactory.EXOPLAYER);
+    private final SimpleExoPlayer mPlayer;
+    private final DataSource.Factory mDataSourceFactory;
+    private final LeanbackPlayerAdapter mPlayerAdapter;
+
+    ExoPlayerVideoPlayer(Context context) {
+        mContext = context;
+        DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter();
+        DefaultTrackSelector trackSelector =
+                new DefaultTrackSelector(new AdaptiveTrackSelection.Factory(bandwidthMeter));
+        DefaultLoadControl loadControl = new DefaultLoadControl(
+                new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE), MIN_BUFFER_MS,
+                MAX_BUFFER_MS, BUFFER_FOR_PLAYBACK_MS, BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS,
+                C.LENGTH_UNSET, true);
+        mPlayer = ExoPlayerFactory.newSimpleInstance(new DefaultRenderersFactory(context),
+                trackSelector, loadControl);
+        mDataSourceFactory = new DefaultDataSourceFactory(context,
+                Util.getUserAgent(context, USER_AGENT), bandwidthMeter);
+        mPlayerAdapter = new LeanbackPlayerAdapter(context, mPlayer, UPDATE_PERIOD_MS);
+
+        mPlayer.addVideoListener(new VideoListener() {
+            @Override
+            public void onVideoSizeChanged(int width, int height, int unappliedRotationDegrees,
+                    float pixelWidthHeightRatio) {
+            }
+
+            @Override
+            public void onRenderedFirstFrame() {
+                mMetrics.onFirstFrame();
+            }
+        });
+        mPlayer.addListener(new Player.DefaultEventListener() {
+            @Override
+            public void onPlayerStateChanged(boolean playWhenReady, int playbackState) {
+                if (playbackState == Player.STATE_BUFFERING) {
+                    mMetrics.onBufferingStart();
+                } else {
+                    mMetrics.onBufferingEnd();
+                }
+            }
+
+            @Override
+            public void onPositionDiscontinuity(int reason) {
+                // Reported as soon as a seek is asked for, before the player buffers for it.
+                if (reason == Player.DISCONTINUITY_REASON_SEEK) {
+                    mMetrics.onSeekStart();
+                }
+            }
+
+            @Override
+            public void onSeekProcessed() {
+                mMetrics.onSeekEnd();
+            }
+        });
+    }
+
+    @Override
+    public PlayerAdapter getPlayerAdapter() {
+        return mPlayerAdapter;
+    }
+
+    @Override
+    public void setDataSource(Uri uri) {
+        mMetrics.onStart();
+        mPlayer.prepare(buildMediaSource(uri));
+    }
+
+    private MediaSource buildMediaSource(Uri uri) {
+        switch (Util.inferContentType(uri.getLastPathSegment())) {
+            case C.TYPE_DASH:
+                return new DashMediaSource.Factory(
+                        new DefaultDashChunkSource.Factory(mDataSourceFactory), mDataSourceFactory)
+                        .createMediaSource(uri);
+            case C.TYPE_HLS:
+                return new HlsMediaSource.Factory(mDataSourceFactory).createMediaSource(uri);
+            default:
+                // A single file, whose start the proxy can cache.
+                return new ExtractorMediaSource.Factory(mDataSourceFactory).createMediaSource(
+                        VideoCacheProxy.getInstance(mContext).getProxyUri(uri.toString()));
+        }
+    }
+
+    @Override
+    public void release() {
+        mMetrics.report();
+        mPlayer.release();
+    }
+}
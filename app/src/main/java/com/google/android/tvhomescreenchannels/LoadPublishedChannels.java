@@ -17,32 +17,60 @@ package com.google.android.tvhomescreenchannels;
 import android.content.Context;
 import android.database.Cursor;
 import android.media.tv.TvContract;
-import android.net.Uri;
 import android.os.AsyncTask;
+import android.support.annotation.Nullable;
 import android.support.media.tv.TvContractCompat;
 import android.text.TextUtils;
+import android.util.LongSparseArray;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
- * Query the channels already added by this app.
+ * Query the channels already added by this app, or only some of them.
  */
 class LoadPublishedChannels extends AsyncTask<Void, Void, Void> {
     private Context mContext;
+    private TvProviderGateway mGateway;
     private ArrayList<ChannelPlaylistId> mChannelPlaylistIds = new ArrayList<>();
     private Listener mListener;
+    private final String mChannelSelection;
+    private final String mProgramSelection;
 
     LoadPublishedChannels(Context context, Listener listener) {
+        this(context, listener, null);
+    }
+
+    /**
+     * @param channelIds the ids of the channels to load, or null to load all of them. The channels
+     *                   that are missing from the result have been deleted.
+     */
+    LoadPublishedChannels(Context context, Listener listener,
+            @Nullable Collection<Long> channelIds) {
         mContext = context;
         mListener = listener;
+        if (channelIds == null) {
+            mChannelSelection = null;
+            mProgramSelection = null;
+        } else {
+            String ids = TextUtils.join(", ", channelIds);
+            mChannelSelection = TvContractCompat.Channels._ID + " IN (" + ids + ")";
+            mProgramSelection = TvContractCompat.PreviewPrograms.COLUMN_CHANNEL_ID
+                    + " IN (" + ids + ")";
+        }
     }
 
     @Override
     protected Void doInBackground(Void... params) {
-        loadChannels();
-        for (ChannelPlaylistId channelPlaylistId : mChannelPlaylistIds) {
-            loadProgramsForChannel(channelPlaylistId);
+        try (TvProviderGateway gateway = TvProviderGateway.acquire(mContext)) {
+            mGateway = gateway;
+            loadChannels();
+            if (!mChannelPlaylistIds.isEmpty()) {
+                loadPrograms();
+            }
+        } finally {
+            mGateway = null;
         }
         return null;
     }
@@ -53,9 +81,9 @@ class LoadPublishedChannels extends AsyncTask<Void, Void, Void> {
     }
 
     private void loadChannels() {
-        // Iterate "cursor" through all the channels owned by this app.
-        try (Cursor cursor = mContext.getContentResolver().query(TvContract.Channels.CONTENT_URI,
-                SampleTvProvider.CHANNELS_MAP_PROJECTION, null, null, null)) {
+        // Iterate "cursor" through all the requested channels owned by this app.
+        try (Cursor cursor = mGateway.query(TvContract.Channels.CONTENT_URI,
+                SampleTvProvider.CHANNELS_MAP_PROJECTION, mChannelSelection, null)) {
             if (cursor != null) {
                 while (cursor.moveToNext()) {
                     if (!cursor.isNull(SampleTvProvider
@@ -68,7 +96,7 @@ class LoadPublishedChannels extends AsyncTask<Void, Void, Void> {
                             // accordingly. Note that no intent is received when a channel is
                             // removed from the launcher and it's the app's responsibility to
                             // examine the browsable flag and act accordingly.
-                            SampleTvProvider.deleteChannel(mContext, channelId);
+                            SampleTvProvider.deleteChannel(mGateway, channelId);
                         } else {
                             // Found a row that contains a non-null provider id.
                             String id = cursor.getString(SampleTvProvider
@@ -81,14 +109,21 @@ class LoadPublishedChannels extends AsyncTask<Void, Void, Void> {
         }
     }
 
-    private void loadProgramsForChannel(ChannelPlaylistId channel) {
-        // Iterate "cursor" through all the programs assigned to "channelId".
-        Uri programUri = TvContractCompat.buildPreviewProgramsUriForChannel(channel.mChannelId);
-        try (Cursor cursor = mContext.getContentResolver().query(programUri,
-                SampleTvProvider.PROGRAMS_MAP_PROJECTION, null, null, null)) {
+    private void loadPrograms() {
+        LongSparseArray<ChannelPlaylistId> channels = new LongSparseArray<>(
+                mChannelPlaylistIds.size());
+        for (ChannelPlaylistId channelPlaylistId : mChannelPlaylistIds) {
+            channels.put(channelPlaylistId.mChannelId, channelPlaylistId);
+        }
+        // Iterate "cursor" through the programs of all the channels owned by this app at once and
+        // assign each of them to its channel, rather than querying the programs of every channel.
+        try (Cursor cursor = mGateway.query(TvContractCompat.PreviewPrograms.CONTENT_URI,
+                SampleTvProvider.PROGRAMS_MAP_PROJECTION, mProgramSelection, null)) {
             if (cursor != null) {
                 while (cursor.moveToNext()) {
-                    if (!cursor.isNull(SampleTvProvider
+                    ChannelPlaylistId channel = channels.get(
+                            cursor.getLong(SampleTvProvider.PROGRAMS_COLUMN_CHANNEL_ID_INDEX));
+                    if (channel != null && !cursor.isNull(SampleTvProvider
                             .PROGRAMS_COLUMN_INTERNAL_PROVIDER_ID_INDEX)) {
                         // Found a row that contains a non-null COLUMN_INTERNAL_PROVIDER_ID.
                         String id = cursor.getString(SampleTvProvider
@@ -104,7 +139,7 @@ class LoadPublishedChannels extends AsyncTask<Void, Void, Void> {
                             if (interactionType == TvContractCompat.PreviewProgramColumns
                                     .INTERACTION_TYPE_VIEWS) {
                                 viewCount = cursor.getInt(SampleTvProvider
-                                        .PROGRAMS_COLUMN_INTERNAL_INTERACTION_TYPE_INDEX);
+                                        .PROGRAMS_COLUMN_INTERNAL_INTERACTION_COUNT_INDEX);
                             }
                         }
 
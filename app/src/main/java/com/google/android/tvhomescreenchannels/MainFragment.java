@@ -18,7 +18,6 @@ import android.app.Activity;
 import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.drawable.Drawable;
 import android.media.tv.TvContract;
 import android.os.AsyncTask;
 import android.os.Bundle;
@@ -27,9 +26,11 @@ import android.support.media.tv.TvContractCompat;
 import android.support.v17.leanback.app.BackgroundManager;
 import android.support.v17.leanback.app.BrowseFragment;
 import android.support.v17.leanback.widget.ArrayObjectAdapter;
+import android.support.v17.leanback.widget.DiffCallback;
 import android.support.v17.leanback.widget.HeaderItem;
 import android.support.v17.leanback.widget.ListRow;
 import android.support.v17.leanback.widget.ListRowPresenter;
+import android.support.v17.leanback.widget.ObjectAdapter;
 import android.support.v17.leanback.widget.OnItemViewClickedListener;
 import android.support.v17.leanback.widget.OnItemViewSelectedListener;
 import android.support.v17.leanback.widget.Presenter;
@@ -37,17 +38,15 @@ import android.support.v17.leanback.widget.PresenterSelector;
 import android.support.v17.leanback.widget.Row;
 import android.support.v17.leanback.widget.RowPresenter;
 import android.support.v4.content.ContextCompat;
-import android.util.DisplayMetrics;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.View;
 
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.request.target.SimpleTarget;
-import com.bumptech.glide.request.transition.Transition;
 import com.google.android.tvhomescreenchannels.presenters.AddChannelPresenter;
 import com.google.android.tvhomescreenchannels.presenters.CardPresenter;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -60,24 +59,62 @@ public class MainFragment extends BrowseFragment implements SampleClipApi.GetPla
     private static final int BACKGROUND_UPDATE_DELAY = 300;
     private static final int ADD_CHANNEL_REQUEST = 1;
 
+    // The rows are created ten at a time, ten rows ahead of the focused row, and dropped once they
+    // are forty rows away from it.
+    private static final int ROWS_PAGE_SIZE = 10;
+    private static final int ROWS_PREFETCH_PAGES = 1;
+    private static final int ROWS_RETAINED_PAGES = 3;
+
+    /**
+     * Playlists are matched by playlist id. The row of a playlist updates its own clips, so it is
+     * only rebound when its name changes.
+     */
+    private static final DiffCallback<Playlist> PLAYLIST_DIFF_CALLBACK =
+            new DiffCallback<Playlist>() {
+                @Override
+                public boolean areItemsTheSame(Playlist oldPlaylist, Playlist newPlaylist) {
+                    return TextUtils.equals(oldPlaylist.getPlaylistId(),
+                            newPlaylist.getPlaylistId());
+                }
+
+                @Override
+                public boolean areContentsTheSame(Playlist oldPlaylist, Playlist newPlaylist) {
+                    return TextUtils.equals(oldPlaylist.getName(), newPlaylist.getName());
+                }
+            };
+    /**
+     * Clips are matched by clip id and only rebound when any of their fields changed.
+     */
+    private static final DiffCallback<Clip> CLIP_DIFF_CALLBACK = new DiffCallback<Clip>() {
+        @Override
+        public boolean areItemsTheSame(Clip oldClip, Clip newClip) {
+            return TextUtils.equals(oldClip.getClipId(), newClip.getClipId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(Clip oldClip, Clip newClip) {
+            return oldClip.getFingerprint() == newClip.getFingerprint();
+        }
+    };
+
     private final Handler mHandler = new Handler();
-    // The main adapter containing all the rows of this fragment.
-    ArrayObjectAdapter mRowsAdapter;
+    // The main adapter containing all the rows of this fragment, created as they are needed.
+    PagingObjectAdapter<Playlist> mRowsAdapter;
     // The adapter for the last row that contains the "Add channel" action button.
     ArrayObjectAdapter mLastRowAdapter;
     int mNextChannelIndexToPublish = 0;
     Map<String, LoadPublishedChannels.ChannelPlaylistId> mPublishedChannels = new HashMap<>();
-    private DisplayMetrics mMetrics;
     private URI mBackgroundURI;
     private BackgroundManager mBackgroundManager;
+    private BackgroundLoader mBackgroundLoader;
     private List<Playlist> mPlaylists;
     private Runnable mBackgroudUpdateRunnable;
     // Whether the playlists have finished loading from the server.
     private boolean mPlaylistsLoadedFromServer = false;
     // Whether the fragment has started.
     private boolean mStarted = false;
-    // AsyncTask for loading published channels on a background thread.
-    private AsyncTask mLoadPublishedChannelsTask;
+    // The channel waiting for the user to approve adding it.
+    private long mRequestedChannelId;
     // The PresenterSelector for picking the presenter to display clips or "Add channel" button
     private ClipPresenterSelector mPresenterSelector;
 
@@ -104,9 +141,9 @@ public class MainFragment extends BrowseFragment implements SampleClipApi.GetPla
         if (!mPlaylistsLoadedFromServer || !mStarted) {
             return;
         }
-        cleanUpLoadChannelsTask();
-        mLoadPublishedChannelsTask = new LoadPublishedChannels(getActivity(), this)
-                .execute();
+        // The channels are served from the cache, which only queries the TV provider for the
+        // channels that have changed since they were last loaded.
+        PublishedChannelsCache.getInstance(getActivity()).load(this);
     }
 
     @Override
@@ -149,10 +186,7 @@ public class MainFragment extends BrowseFragment implements SampleClipApi.GetPla
     }
 
     private void cleanUpLoadChannelsTask() {
-        if (mLoadPublishedChannelsTask != null) {
-            mLoadPublishedChannelsTask.cancel(true);
-            mLoadPublishedChannelsTask = null;
-        }
+        PublishedChannelsCache.getInstance(getActivity()).cancel(this);
     }
 
     /**
@@ -178,7 +212,7 @@ public class MainFragment extends BrowseFragment implements SampleClipApi.GetPla
             if (mLastRowAdapter != null) {
                 // No candidate unpublished channels are found and the "Add channel" UI exists.
                 // Will remove this action button from the UI.
-                mRowsAdapter.removeItems(mRowsAdapter.size() - 1, 1);
+                mRowsAdapter.setFooter(null);
                 mLastRowAdapter = null;
             }
             return;
@@ -189,13 +223,13 @@ public class MainFragment extends BrowseFragment implements SampleClipApi.GetPla
             // Will add this action button to the UI.
             mLastRowAdapter = new ArrayObjectAdapter(mPresenterSelector.mAddChannelPresenter);
             mLastRowAdapter.add(mPlaylists.get(mNextChannelIndexToPublish));
-            mRowsAdapter.add(new ListRow(mLastRowAdapter));
+            mRowsAdapter.setFooter(new ListRow(mLastRowAdapter));
         } else {
             // The "Add channel" UI already exists and a candidate unpublished channel is found.
             // Update the adapter entry for this action button in order to display this new
             // unpublished channel.
             mLastRowAdapter.replace(0, mPlaylists.get(mNextChannelIndexToPublish));
-            mRowsAdapter.notifyItemRangeChanged(mRowsAdapter.size() - 1, 1);
+            mRowsAdapter.notifyFooterChanged();
         }
     }
 
@@ -211,7 +245,7 @@ public class MainFragment extends BrowseFragment implements SampleClipApi.GetPla
                 if (mBackgroundURI != null) {
                     updateBackground(mBackgroundURI.toString());
                 } else {
-                    mBackgroundManager.setDrawable(null);
+                    mBackgroundLoader.show(null);
                 }
             }
         };
@@ -236,6 +270,8 @@ public class MainFragment extends BrowseFragment implements SampleClipApi.GetPla
         super.onStop();
         mStarted = false;
         cleanUpLoadChannelsTask();
+        // Write the view counts of this session before the app goes to the background.
+        ViewCountWriter.getInstance(getActivity()).flush();
     }
 
     @Override
@@ -243,6 +279,9 @@ public class MainFragment extends BrowseFragment implements SampleClipApi.GetPla
         super.onDestroy();
         SampleClipApi.cancelGetPlaylists(this);
         mHandler.removeCallbacks(mBackgroudUpdateRunnable);
+        if (mBackgroundLoader != null) {
+            mBackgroundLoader.release();
+        }
     }
 
     /**
@@ -262,51 +301,71 @@ public class MainFragment extends BrowseFragment implements SampleClipApi.GetPla
                 if (DEBUG) {
                     Log.d(TAG, "channel added");
                 }
-                cleanUpLoadChannelsTask();
-                mLoadPublishedChannelsTask = new LoadPublishedChannels(getActivity(), this)
-                        .execute();
+                // The channel is now browsable, which may not have been notified yet.
+                PublishedChannelsCache.getInstance(getActivity())
+                        .invalidateChannel(mRequestedChannelId);
+                loadPublishedChannelsIfReady();
             } else {
                 Log.e(TAG, "could not add channel");
             }
         }
     }
 
+    /**
+     * Updates the rows to show "mPlaylists". The playlists are diffed against what is already
+     * shown, so that only the rows that changed are rebound. The row of a playlist and its clips
+     * are only created once the row comes close to the focused row.
+     */
     private void loadRows() {
-        mRowsAdapter = new ArrayObjectAdapter(new ListRowPresenter());
-        SampleContentDb sampleContentDb = SampleContentDb.getInstance(getActivity());
-        mPresenterSelector = new ClipPresenterSelector(getContext());
-        mPresenterSelector.mAddChannelPresenter
-                .setOnButtonClickedListener(new AddChannelPresenter.OnButtonClickedListener() {
-                    @Override
-                    public void onButtonClicked(Playlist playlist) {
-                        new AddChannelInBackground().execute(playlist);
+        if (mRowsAdapter == null) {
+            mPresenterSelector = new ClipPresenterSelector(getContext());
+            mPresenterSelector.mAddChannelPresenter
+                    .setOnButtonClickedListener(new AddChannelPresenter.OnButtonClickedListener() {
+                        @Override
+                        public void onButtonClicked(Playlist playlist) {
+                            new AddChannelInBackground().execute(playlist);
+                        }
+                    });
+            mRowsAdapter = new PagingObjectAdapter<>(new ListRowPresenter(),
+                    new PlaylistRowFactory(), ROWS_PAGE_SIZE, ROWS_PREFETCH_PAGES,
+                    ROWS_RETAINED_PAGES);
+            setAdapter(mRowsAdapter);
+        }
+        mRowsAdapter.setSource(mPlaylists, PLAYLIST_DIFF_CALLBACK);
+
+        if (SampleContentDb.peekInstance() == null) {
+            SampleContentDb.getInstance(getActivity(), new SampleContentDb.OnLoadedListener() {
+                @Override
+                public void onSampleContentDbLoaded(SampleContentDb sampleContentDb) {
+                    if (isAdded()) {
+                        loadRows();
                     }
-                });
-        for (int i = 0; i < mPlaylists.size(); i++) {
-            Playlist playlist = mPlaylists.get(i);
-            List<Clip> clips = playlist.getClips();
-            for (int j = 0; j < clips.size(); ++j) {
-                if (sampleContentDb.isClipRemoved(clips.get(j).getClipId())) {
-                    clips.remove(j);
-                    --j;
                 }
+            });
+        }
+    }
+
+    /**
+     * Returns the clips of "playlist" to show. The clips of a playlist are shared with the rest of
+     * the app, so the removed clips are skipped here rather than removed from the playlist. Every
+     * clip is shown if the database of removed clips is still loading, and the removed clips are
+     * filtered out once it has loaded.
+     */
+    private static List<Clip> getClipsToShow(Playlist playlist) {
+        SampleContentDb sampleContentDb = SampleContentDb.peekInstance();
+        List<Clip> clips = new ArrayList<>(playlist.getClips().size());
+        for (Clip clip : playlist.getClips()) {
+            if (sampleContentDb == null || !sampleContentDb.isClipRemoved(clip.getClipId())) {
+                clips.add(clip);
             }
-            ArrayObjectAdapter listRowAdapter = new ArrayObjectAdapter(
-                    mPresenterSelector.mCardPresenter);
-            for (int j = 0; j < clips.size(); ++j) {
-                listRowAdapter.add(clips.get(j));
-            }
-            HeaderItem header = new HeaderItem(i, playlist.getName());
-            mRowsAdapter.add(new ListRow(header, listRowAdapter));
         }
-        setAdapter(mRowsAdapter);
+        return clips;
     }
 
     private void prepareBackgroundManager() {
         mBackgroundManager = BackgroundManager.getInstance(getActivity());
         mBackgroundManager.attach(getActivity().getWindow());
-        mMetrics = new DisplayMetrics();
-        getActivity().getWindowManager().getDefaultDisplay().getMetrics(mMetrics);
+        mBackgroundLoader = new BackgroundLoader(getActivity(), mBackgroundManager);
     }
 
     private void setupUIElements() {
@@ -334,17 +393,7 @@ public class MainFragment extends BrowseFragment implements SampleClipApi.GetPla
     }
 
     protected void updateBackground(String uri) {
-        int width = mMetrics.widthPixels;
-        int height = mMetrics.heightPixels;
-        Glide.with(getActivity())
-                .load(uri)
-                .into(new SimpleTarget<Drawable>(width, height) {
-                    @Override
-                    public void onResourceReady(Drawable resource,
-                            Transition<? super Drawable> glideAnimation) {
-                        mBackgroundManager.setDrawable(resource);
-                    }
-                });
+        mBackgroundLoader.show(uri);
         mHandler.removeCallbacks(mBackgroudUpdateRunnable);
     }
 
@@ -353,6 +402,49 @@ public class MainFragment extends BrowseFragment implements SampleClipApi.GetPla
         mHandler.postDelayed(mBackgroudUpdateRunnable, BACKGROUND_UPDATE_DELAY);
     }
 
+    /**
+     * Creates the row of a playlist, and updates its clips with "CLIP_DIFF_CALLBACK".
+     */
+    private final class PlaylistRowFactory implements PagingObjectAdapter.ItemFactory<Playlist> {
+        @Override
+        public String getKey(Playlist playlist) {
+            return playlist.getPlaylistId();
+        }
+
+        @Override
+        public Object createItem(Playlist playlist) {
+            ArrayObjectAdapter listRowAdapter =
+                    new ArrayObjectAdapter(mPresenterSelector.mCardPresenter);
+            listRowAdapter.setItems(getClipsToShow(playlist), CLIP_DIFF_CALLBACK);
+            return new ListRow(new HeaderItem(getHeaderId(playlist), playlist.getName()),
+                    listRowAdapter);
+        }
+
+        /**
+         * Returns the header id of the row of "playlist", derived from its playlist id so that a
+         * row created again for the same playlist keeps its header id. Playlist ids are numbers;
+         * any other id is mapped from its hash code to a negative header id.
+         */
+        private long getHeaderId(Playlist playlist) {
+            String playlistId = playlist.getPlaylistId();
+            if (!TextUtils.isEmpty(playlistId) && TextUtils.isDigitsOnly(playlistId)
+                    && playlistId.length() < 19) {
+                return Long.parseLong(playlistId);
+            }
+            return Long.MIN_VALUE + (playlistId != null ? playlistId.hashCode() & 0xffffffffL : 0);
+        }
+
+        @Override
+        public void updateItem(Object item, Playlist playlist) {
+            ListRow row = (ListRow) item;
+            if (!TextUtils.equals(row.getHeaderItem().getName(), playlist.getName())) {
+                row.setHeaderItem(new HeaderItem(row.getHeaderItem().getId(), playlist.getName()));
+            }
+            ((ArrayObjectAdapter) row.getAdapter()).setItems(getClipsToShow(playlist),
+                    CLIP_DIFF_CALLBACK);
+        }
+    }
+
     private static final class ClipPresenterSelector extends PresenterSelector {
         final AddChannelPresenter mAddChannelPresenter;
         CardPresenter mCardPresenter;
@@ -402,11 +494,14 @@ public class MainFragment extends BrowseFragment implements SampleClipApi.GetPla
     private final class AddChannelInBackground extends AsyncTask<Playlist, Void, Long> {
         @Override
         protected Long doInBackground(Playlist... params) {
-            return SampleTvProvider.addChannel(getActivity(), params[0]);
+            try (TvProviderGateway gateway = TvProviderGateway.acquire(getActivity())) {
+                return SampleTvProvider.addChannel(gateway, params[0]);
+            }
         }
 
         @Override
         protected void onPostExecute(Long channelId) {
+            mRequestedChannelId = channelId;
             Intent intent = new Intent(TvContract.ACTION_REQUEST_CHANNEL_BROWSABLE);
             intent.putExtra(TvContractCompat.EXTRA_CHANNEL_ID, channelId);
             try {
@@ -417,23 +512,6 @@ public class MainFragment extends BrowseFragment implements SampleClipApi.GetPla
         }
     }
 
-    private final class SetViewCountInBackground extends AsyncTask<Void, Void, Void> {
-        private long programId;
-        private int viewCount;
-
-        SetViewCountInBackground(long programId, int viewCount) {
-            this.programId = programId;
-            this.viewCount = viewCount;
-            execute();
-        }
-
-        @Override
-        protected Void doInBackground(Void... params) {
-            SampleTvProvider.setProgramViewCount(getActivity(), programId, viewCount);
-            return null;
-        }
-    }
-
     /**
      * Remove a channel on a background thread, since adding a channel can potentially
      * block.
@@ -442,7 +520,9 @@ public class MainFragment extends BrowseFragment implements SampleClipApi.GetPla
         @Override
         protected Void doInBackground(Playlist... params) {
             Playlist playlist = params[0];
-            SampleTvProvider.deleteChannel(getActivity(), playlist.getChannelId());
+            try (TvProviderGateway gateway = TvProviderGateway.acquire(getActivity())) {
+                SampleTvProvider.deleteChannel(gateway, playlist.getChannelId());
+            }
             return null;
         }
     }
@@ -461,7 +541,8 @@ public class MainFragment extends BrowseFragment implements SampleClipApi.GetPla
                     if (programId != 0) {
                         // This clip is published as a program. Increment the view count for the
                         // program to demonstrate updating.
-                        new SetViewCountInBackground(programId, clip.incrementViewCount());
+                        ViewCountWriter.getInstance(getActivity())
+                                .setViewCount(programId, clip.incrementViewCount());
                     }
                 }
             }
@@ -469,13 +550,42 @@ public class MainFragment extends BrowseFragment implements SampleClipApi.GetPla
     }
 
     private final class ItemViewSelectedListener implements OnItemViewSelectedListener {
+        private Row mSelectedRow;
+        private int mSelectedPosition;
+
+        /**
+         * Preloads the images of the next cards of "row" in the direction the selection moved,
+         * and the backgrounds of the cards most likely to be selected next: the next ones in
+         * that direction and the previous one.
+         */
+        private void preloadCardImages(ListRow row, Object item) {
+            ObjectAdapter rowAdapter = row.getAdapter();
+            int position = ((ArrayObjectAdapter) rowAdapter).indexOf(item);
+            int direction = row == mSelectedRow && position < mSelectedPosition ? -1 : 1;
+            mSelectedRow = row;
+            mSelectedPosition = position;
+            CardPresenter.preloadCardImages(getActivity(), rowAdapter, position, direction);
+            int[] offsets = {direction, 2 * direction, -direction};
+            for (int offset : offsets) {
+                int prefetchPosition = position + offset;
+                if (prefetchPosition >= 0 && prefetchPosition < rowAdapter.size()) {
+                    Clip clip = (Clip) rowAdapter.get(prefetchPosition);
+                    if (clip.getBackgroundImageUrl() != null) {
+                        mBackgroundLoader.prefetch(clip.getBackgroundImageUrl());
+                    }
+                }
+            }
+        }
 
         @Override
         public void onItemSelected(Presenter.ViewHolder itemViewHolder, Object item,
                 RowPresenter.ViewHolder rowViewHolder, Row row) {
+            // Create the rows coming close to the selected row and drop those far from it.
+            mRowsAdapter.setFocusedPosition(getSelectedPosition());
             if (item instanceof Clip) {
                 mBackgroundURI = ((Clip) item).getBackgroundImageURI();
                 startBackgroundTimer();
+                preloadCardImages((ListRow) row, item);
             } else if (item instanceof Playlist) {
                 // Remove the background when the "Add channel" UI is selected.
                 mBackgroundURI = null;
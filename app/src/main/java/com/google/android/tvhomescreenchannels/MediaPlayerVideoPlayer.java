@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.tvhomescreenchannels;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.support.v17.leanback.media.MediaPlayerAdapter;
+import android.support.v17.leanback.media.PlayerAdapter;
+
+/**
+ * Plays videos with the framework's MediaPlayer through leanback's MediaPlayerAdapter. Videos are
+ * loaded through "VideoCacheProxy", so that their start is cached on disk.
+ */
+final class MediaPlayerVideoPlayer implements VideoPlayer {
+    private final Context mContext;
+    private final PlaybackMetrics mMetrics = new PlaybackMetrics(VideoPlayerFactory.MEDIA_PLAYER);
+    private final MediaPlayerAdapter mPlayerAdapter;
+
+    MediaPlayerVideoPlayer(Context context) {
+        mContext = context;
+        mPlayerAdapter = new MediaPlayerAdapter(context) {
+            @Override
+            protected boolean onInfo(int what, int extra) {
+                switch (what) {
+                    case MediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START:
+                        mMetrics.onFirstFrame();
+                        break;
+                    case MediaPlayer.MEDIA_INFO_BUFFERING_START:
+                        mMetrics.onBufferingStart();
+                        break;
+                    case MediaPlayer.MEDIA_INFO_BUFFERING_END:
+                        mMetrics.onBufferingEnd();
+                        break;
+                }
+                return super.onInfo(what, extra);
+            }
+
+            @Override
+            public void seekTo(long position) {
+                mMetrics.onSeekStart();
+                super.seekTo(position);
+            }
+
+            @Override
+            protected void onSeekComplete() {
+                mMetrics.onSeekEnd();
+                super.onSeekComplete();
+            }
+        };
+    }
+
+    @Override
+    public PlayerAdapter getPlayerAdapter() {
+        return mPlayerAdapter;
+    }
+
+    @Override
+    public void setDataSource(Uri uri) {
+        mMetrics.onStart();
+        mPlayerAdapter.setDataSource(
+                VideoCacheProxy.getInstance(mContext).getProxyUri(uri.toString()));
+    }
+
+    @Override
+    public void release() {
+        // The adapter releases its MediaPlayer once it is detached from the playback screen.
+        mMetrics.report();
+    }
+}
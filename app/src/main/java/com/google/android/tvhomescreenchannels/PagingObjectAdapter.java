@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.tvhomescreenchannels;
+
+import android.support.annotation.Nullable;
+import android.support.v17.leanback.widget.DiffCallback;
+import android.support.v17.leanback.widget.ObjectAdapter;
+import android.support.v17.leanback.widget.Presenter;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An ObjectAdapter showing one item for each entry of a source list, where the items are only
+ * created when they are first needed. Items are created a page of "pageSize" at a time, the pages
+ * around the focused position are created ahead of time and the pages far away from it are
+ * dropped, so the cost of showing a long list stays close to the cost of the part on screen.
+ * An optional footer item is shown after the items.
+ *
+ * @param <S> the type of the source entries.
+ */
+class PagingObjectAdapter<S> extends ObjectAdapter {
+    /**
+     * Creates the item shown for a source entry, and updates it when its entry changes.
+     */
+    interface ItemFactory<S> {
+        /**
+         * Returns the key identifying "source" and the item created for it.
+         */
+        String getKey(S source);
+
+        Object createItem(S source);
+
+        /**
+         * Updates "item", created for an entry with the same key, to show "source".
+         */
+        void updateItem(Object item, S source);
+    }
+
+    private final ItemFactory<S> mItemFactory;
+    private final int mPageSize;
+    private final int mPrefetchPages;
+    private final int mRetainedPages;
+    private List<S> mSource = Collections.emptyList();
+    // The created items by key, and the pages holding them.
+    private final Map<String, Object> mItems = new HashMap<>();
+    private final Set<Integer> mLoadedPages = new HashSet<>();
+    private int mFocusedPage;
+    private Object mFooter;
+
+    /**
+     * @param prefetchPages the number of pages on each side of the focused page to create ahead.
+     * @param retainedPages the number of pages on each side of the focused page to keep, pages
+     *                      further away are dropped. This must be at least "prefetchPages".
+     */
+    PagingObjectAdapter(Presenter presenter, ItemFactory<S> itemFactory, int pageSize,
+            int prefetchPages, int retainedPages) {
+        super(presenter);
+        mItemFactory = itemFactory;
+        mPageSize = pageSize;
+        mPrefetchPages = prefetchPages;
+        mRetainedPages = retainedPages;
+    }
+
+    /**
+     * Replaces the source entries. The changes are found with "diffCallback" so that only the
+     * entries that changed are rebound. The items already created for entries that remain near the
+     * focused page are updated rather than created again, and all other items are dropped.
+     */
+    void setSource(List<S> source, final DiffCallback<S> diffCallback) {
+        final List<S> oldSource = mSource;
+        final List<S> newSource = new ArrayList<>(source);
+        DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldSource.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newSource.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return diffCallback.areItemsTheSame(oldSource.get(oldItemPosition),
+                        newSource.get(newItemPosition));
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return diffCallback.areContentsTheSame(oldSource.get(oldItemPosition),
+                        newSource.get(newItemPosition));
+            }
+        });
+
+        mSource = newSource;
+        // The pages now hold other entries. The items of the entries that remain within the
+        // retained pages are kept and updated, and the rest of those pages are created on demand.
+        mLoadedPages.clear();
+        Map<String, Object> items = new HashMap<>(mItems);
+        mItems.clear();
+        int end = Math.min(newSource.size(), (mFocusedPage + mRetainedPages + 1) * mPageSize);
+        for (int position = Math.max(0, (mFocusedPage - mRetainedPages) * mPageSize);
+                position < end; ++position) {
+            S entry = newSource.get(position);
+            String key = mItemFactory.getKey(entry);
+            Object item = items.get(key);
+            if (item != null) {
+                mItemFactory.updateItem(item, entry);
+                mItems.put(key, item);
+                mLoadedPages.add(position / mPageSize);
+            }
+        }
+
+        result.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                notifyItemRangeInserted(position, count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                notifyItemRangeRemoved(position, count);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                notifyItemMoved(fromPosition, toPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                notifyItemRangeChanged(position, count);
+            }
+        });
+    }
+
+    /**
+     * Sets the item shown after all the items, or removes it if "footer" is null.
+     */
+    void setFooter(@Nullable Object footer) {
+        Object oldFooter = mFooter;
+        mFooter = footer;
+        if (oldFooter == null && footer != null) {
+            notifyItemRangeInserted(mSource.size(), 1);
+        } else if (oldFooter != null && footer == null) {
+            notifyItemRangeRemoved(mSource.size(), 1);
+        } else if (footer != null) {
+            notifyFooterChanged();
+        }
+    }
+
+    void notifyFooterChanged() {
+        if (mFooter != null) {
+            notifyItemRangeChanged(mSource.size(), 1);
+        }
+    }
+
+    /**
+     * Creates the pages around "position" and drops the pages far away from it.
+     */
+    void setFocusedPosition(int position) {
+        if (mSource.isEmpty()) {
+            return;
+        }
+        int focusedPage = Math.min(position, mSource.size() - 1) / mPageSize;
+        mFocusedPage = focusedPage;
+        List<Integer> farPages = new ArrayList<>();
+        for (Integer page : mLoadedPages) {
+            if (Math.abs(page - focusedPage) > mRetainedPages) {
+                farPages.add(page);
+            }
+        }
+        for (Integer page : farPages) {
+            unloadPage(page);
+        }
+        int lastPage = (mSource.size() - 1) / mPageSize;
+        for (int page = Math.max(0, focusedPage - mPrefetchPages);
+                page <= Math.min(lastPage, focusedPage + mPrefetchPages); ++page) {
+            loadPage(page);
+        }
+    }
+
+    @Override
+    public int size() {
+        return mSource.size() + (mFooter != null ? 1 : 0);
+    }
+
+    @Override
+    public Object get(int position) {
+        if (position == mSource.size()) {
+            return mFooter;
+        }
+        Object item = mItems.get(mItemFactory.getKey(mSource.get(position)));
+        if (item == null) {
+            loadPage(position / mPageSize);
+            item = mItems.get(mItemFactory.getKey(mSource.get(position)));
+        }
+        return item;
+    }
+
+    /**
+     * Creates the items of "page" that have not been created yet.
+     */
+    private void loadPage(int page) {
+        mLoadedPages.add(page);
+        int end = Math.min(mSource.size(), (page + 1) * mPageSize);
+        for (int position = page * mPageSize; position < end; ++position) {
+            S entry = mSource.get(position);
+            String key = mItemFactory.getKey(entry);
+            if (!mItems.containsKey(key)) {
+                mItems.put(key, mItemFactory.createItem(entry));
+            }
+        }
+    }
+
+    private void unloadPage(int page) {
+        mLoadedPages.remove(page);
+        int end = Math.min(mSource.size(), (page + 1) * mPageSize);
+        for (int position = page * mPageSize; position < end; ++position) {
+            mItems.remove(mItemFactory.getKey(mSource.get(position)));
+        }
+    }
+}
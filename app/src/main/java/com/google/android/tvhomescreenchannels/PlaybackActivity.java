@@ -25,6 +25,8 @@ public class PlaybackActivity extends Activity {
 
     public static final String EXTRA_CLIP = "Clip";
     public static final String EXTRA_PROGRESS = "Progress";
+    // Selects the player for this and later playbacks, see "VideoPlayerFactory".
+    public static final String EXTRA_PLAYER = "Player";
     private Clip mClip;
     private long mProgress;
 
@@ -33,6 +35,10 @@ public class PlaybackActivity extends Activity {
         super.onCreate(savedInstanceState);
 
         if (savedInstanceState == null) {
+            String player = getIntent().getStringExtra(EXTRA_PLAYER);
+            if (player != null) {
+                VideoPlayerFactory.selectPlayer(this, player);
+            }
             mClip = getIntent().getParcelableExtra(EXTRA_CLIP);
             mProgress = getIntent().getLongExtra(EXTRA_PROGRESS, -1);
             VideoFragment videoFragment =
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.tvhomescreenchannels;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Measures one playback: the time from setting the data source to the first rendered frame, and
+ * the number and length of the rebuffers after it. Buffering caused by a seek is not a rebuffer.
+ * "report()" logs them with the name of the player, so that the players of "VideoPlayerFactory"
+ * can be compared.
+ * It is only used on the main thread.
+ */
+final class PlaybackMetrics {
+    private static final String TAG = "PlaybackMetrics";
+
+    private final String mPlayerName;
+    private long mStartTimeMs = -1;
+    private long mFirstFrameTimeMs = -1;
+    private long mRebufferStartTimeMs = -1;
+    private boolean mSeeking;
+    private int mRebufferCount;
+    private long mRebufferDurationMs;
+
+    PlaybackMetrics(String playerName) {
+        mPlayerName = playerName;
+    }
+
+    void onStart() {
+        mStartTimeMs = SystemClock.elapsedRealtime();
+    }
+
+    void onFirstFrame() {
+        if (mFirstFrameTimeMs < 0 && mStartTimeMs >= 0) {
+            mFirstFrameTimeMs = SystemClock.elapsedRealtime();
+            Log.i(TAG, mPlayerName + ": first frame in " + (mFirstFrameTimeMs - mStartTimeMs)
+                    + " ms");
+        }
+    }
+
+    /**
+     * Called when the player starts buffering. Only buffering after the first frame and outside
+     * of a seek counts as a rebuffer.
+     */
+    void onBufferingStart() {
+        if (mFirstFrameTimeMs >= 0 && mRebufferStartTimeMs < 0 && !mSeeking) {
+            mRebufferStartTimeMs = SystemClock.elapsedRealtime();
+            ++mRebufferCount;
+        }
+    }
+
+    void onBufferingEnd() {
+        if (mRebufferStartTimeMs >= 0) {
+            mRebufferDurationMs += SystemClock.elapsedRealtime() - mRebufferStartTimeMs;
+            mRebufferStartTimeMs = -1;
+        }
+    }
+
+    /**
+     * Called when a seek starts. The buffering until "onSeekEnd()" refills the buffer at the new
+     * position, so any rebuffer in progress ends and none starts until then.
+     */
+    void onSeekStart() {
+        onBufferingEnd();
+        mSeeking = true;
+    }
+
+    void onSeekEnd() {
+        mSeeking = false;
+    }
+
+    void report() {
+        onBufferingEnd();
+        if (mFirstFrameTimeMs < 0) {
+            Log.i(TAG, mPlayerName + ": no frame rendered");
+            return;
+        }
+        long playbackDurationMs = SystemClock.elapsedRealtime() - mFirstFrameTimeMs;
+        Log.i(TAG, mPlayerName + ": first frame in " + (mFirstFrameTimeMs - mStartTimeMs)
+                + " ms, " + mRebufferCount + " rebuffers for " + mRebufferDurationMs + " ms over "
+                + playbackDurationMs + " ms of playback");
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.tvhomescreenchannels;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import java.util.Map;
+
+/**
+ * Buffers the playback progress checkpoints of clips in memory and writes them to
+ * "SampleContentDb" in batches. A flush is scheduled "FLUSH_DELAY_MS" after the first buffered
+ * checkpoint and is forced by "flush()" when playback pauses or stops, and when the system asks
+ * the app to trim its memory.
+ */
+final class PlaybackProgressRecorder {
+    private static final long FLUSH_DELAY_MS = 30000;
+
+    private static PlaybackProgressRecorder sPlaybackProgressRecorder = null;
+
+    private final Context mContext;
+    // Progress by clip id.
+    private final CoalescingWriter<String, Long> mWriter;
+
+    private PlaybackProgressRecorder(Context context) {
+        mContext = context.getApplicationContext();
+        mWriter = new CoalescingWriter<>(FLUSH_DELAY_MS,
+                new CoalescingWriter.Flusher<String, Long>() {
+                    @Override
+                    public void write(Map<String, Long> clipsProgress) {
+                        SampleContentDb.getInstance(mContext).updateClipProgress(clipsProgress);
+                    }
+                });
+        mContext.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                flush();
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                flush();
+            }
+        });
+    }
+
+    static synchronized PlaybackProgressRecorder getInstance(Context context) {
+        if (sPlaybackProgressRecorder == null) {
+            sPlaybackProgressRecorder = new PlaybackProgressRecorder(context);
+        }
+        return sPlaybackProgressRecorder;
+    }
+
+    /**
+     * Buffers "progress" as the latest playback position of "clipId".
+     */
+    void record(String clipId, long progress) {
+        mWriter.put(clipId, progress);
+    }
+
+    /**
+     * Drops any buffered progress of "clipId" and deletes its stored progress, so that it is
+     * played from the start the next time.
+     */
+    void clear(final String clipId) {
+        mWriter.remove(clipId, new Runnable() {
+            @Override
+            public void run() {
+                SampleContentDb.getInstance(mContext).deleteClipProgress(clipId);
+            }
+        });
+    }
+
+    /**
+     * Writes the buffered progress on a background thread.
+     */
+    void flush() {
+        mWriter.flush();
+    }
+}
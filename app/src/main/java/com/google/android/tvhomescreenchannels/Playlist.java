@@ -23,11 +23,12 @@ public final class Playlist {
     private final String mBgImage;
     private final String mTitle;
     private final String mPlaylistId;
+    private final int mVersion;
     private List<Clip> mClips;
     private boolean mChannelPublished;
     private long mChannelId;
 
-    Playlist(String name, List<Clip> clip, String playlistId) {
+    Playlist(String name, List<Clip> clip, String playlistId, int version) {
         mName = name;
         mTitle = "playlist title";
         mDescription = "playlist description";
@@ -35,6 +36,7 @@ public final class Playlist {
         mBgImage = "asdf";
         mClips = clip;
         mPlaylistId = playlistId;
+        mVersion = version;
     }
 
     public String getName() {
@@ -53,6 +55,14 @@ public final class Playlist {
         return mPlaylistId;
     }
 
+    /**
+     * The version of this playlist's contents. It changes whenever any of its clips change, so a
+     * channel published with the same version does not need its programs synchronized.
+     */
+    int getVersion() {
+        return mVersion;
+    }
+
     public boolean isChannelPublished() {
         return mChannelPublished;
     }
@@ -74,6 +84,6 @@ public final class Playlist {
         return "Playlist { mName = '" + mName + "' mDescription = '" + mDescription
                 + "' mVideoUri = '" + mVideoUri + "' mBgImage = '" + mBgImage + "' mTitle = '"
                 + mTitle + "' mList = '" + mClips + "' mId = '" + mPlaylistId
-                + "' mChannelPublished" + mChannelPublished + "'";
+                + "' mVersion = '" + mVersion + "' mChannelPublished" + mChannelPublished + "'";
     }
 }
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.tvhomescreenchannels;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.request.FutureTarget;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Read only provider of the poster art published to the launcher. The poster art of a clip is
+ * decoded in the "POSTER" bucket of "ArtworkLoader", at the clip's aspect ratio, and kept as a
+ * JPEG file in a cache directory that is trimmed to "CACHE_SIZE" bytes, least recently used first.
+ * The launcher then draws our rows from local files rather than scaling the full size images
+ * itself, and can still draw them when the device is offline.
+ * Uris have the form content://AUTHORITY/poster/[clip id]/[version], where the version changes
+ * with the clip's card image url. Only clips of the catalog are served.
+ */
+public class PosterArtProvider extends ContentProvider {
+    private static final String TAG = "PosterArtProvider";
+    private static final String AUTHORITY = "com.google.android.tvhomescreenchannels.posterart";
+    private static final String POSTER_PATH = "poster";
+    private static final String CACHE_DIRECTORY = "poster_art";
+    private static final String MIME_TYPE = "image/jpeg";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long CACHE_SIZE = 20 * 1024 * 1024;
+    private static final int JPEG_QUALITY = 90;
+    private static final long DECODE_TIMEOUT_SECONDS = 30;
+    private static final Comparator<File> LEAST_RECENTLY_USED_FIRST = new Comparator<File>() {
+        @Override
+        public int compare(File file, File otherFile) {
+            return Long.compare(file.lastModified(), otherFile.lastModified());
+        }
+    };
+
+    private File mCacheDirectory;
+    // The number of requests opening each file, which "trimCache()" must not delete, guarded by
+    // "this".
+    private final Map<File, Integer> mFilesInUse = new HashMap<>();
+
+    /**
+     * Returns the uri the launcher should load the poster art of the clip "clipId" from.
+     */
+    static Uri buildPosterArtUri(String clipId, String cardImageUrl) {
+        return new Uri.Builder()
+                .scheme("content")
+                .authority(AUTHORITY)
+                .appendPath(POSTER_PATH)
+                .appendPath(clipId)
+                .appendPath(getVersion(cardImageUrl))
+                .build();
+    }
+
+    private static String getVersion(String cardImageUrl) {
+        return Integer.toHexString(cardImageUrl != null ? cardImageUrl.hashCode() : 0);
+    }
+
+    @Override
+    public boolean onCreate() {
+        mCacheDirectory = new File(getContext().getCacheDir(), CACHE_DIRECTORY);
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode)
+            throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new SecurityException("Poster art is read only " + uri);
+        }
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() != 3 || !POSTER_PATH.equals(segments.get(0))) {
+            throw new FileNotFoundException("Unknown uri " + uri);
+        }
+        String clipId = segments.get(1);
+        String version = segments.get(2);
+        Clip clip = SampleClipApi.getClipByIdBlocking(clipId);
+        if (clip == null || TextUtils.isEmpty(clip.getCardImageUrl())
+                || !version.equals(getVersion(clip.getCardImageUrl()))) {
+            throw new FileNotFoundException("No poster art for " + uri);
+        }
+
+        File file = new File(mCacheDirectory, clipId + "_" + version + ".jpg");
+        ParcelFileDescriptor fileDescriptor;
+        boolean written = false;
+        acquireFile(file);
+        try {
+            if (file.exists()) {
+                // The modification time orders the files for eviction.
+                file.setLastModified(System.currentTimeMillis());
+            } else {
+                writePosterArt(clip, file);
+                written = true;
+            }
+            fileDescriptor = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        } finally {
+            releaseFile(file);
+        }
+        if (written) {
+            // The file is open, so it can still be served if this trims it.
+            trimCache();
+        }
+        return fileDescriptor;
+    }
+
+    /**
+     * Decodes the poster art of "clip" and writes it to "file". It is written to a temporary file
+     * first, so that concurrent requests for the same poster never read a partial file.
+     */
+    private void writePosterArt(Clip clip, File file) throws FileNotFoundException {
+        RequestManager requestManager = Glide.with(getContext());
+        FutureTarget<Bitmap> target = ArtworkLoader.load(requestManager,
+                getContext().getResources(), clip, ArtworkLoader.Bucket.POSTER).submit();
+        File tempFile = null;
+        try {
+            Bitmap bitmap = target.get(DECODE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (!mCacheDirectory.isDirectory() && !mCacheDirectory.mkdirs()) {
+                throw new IOException("Could not create " + mCacheDirectory);
+            }
+            tempFile = File.createTempFile(file.getName(), TEMP_SUFFIX, mCacheDirectory);
+            try (OutputStream out = new FileOutputStream(tempFile)) {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Could not rename " + tempFile);
+            }
+        } catch (InterruptedException | ExecutionException | TimeoutException | IOException e) {
+            Log.e(TAG, "Writing poster art failed " + clip.getClipId(), e);
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+            throw new FileNotFoundException("No poster art for " + clip.getClipId());
+        } finally {
+            requestManager.clear(target);
+        }
+    }
+
+    private synchronized void acquireFile(File file) {
+        Integer count = mFilesInUse.get(file);
+        mFilesInUse.put(file, count != null ? count + 1 : 1);
+    }
+
+    private synchronized void releaseFile(File file) {
+        Integer count = mFilesInUse.get(file);
+        if (count == null || count <= 1) {
+            mFilesInUse.remove(file);
+        } else {
+            mFilesInUse.put(file, count - 1);
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the cache fits in "CACHE_SIZE". Temporary files
+     * still being written are neither counted nor deleted, and files being opened are skipped.
+     */
+    private synchronized void trimCache() {
+        File[] files = mCacheDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            if (!file.getName().endsWith(TEMP_SUFFIX)) {
+                size += file.length();
+            }
+        }
+        Arrays.sort(files, LEAST_RECENTLY_USED_FIRST);
+        for (int i = 0; i < files.length && size > CACHE_SIZE; ++i) {
+            if (!files[i].getName().endsWith(TEMP_SUFFIX) && !mFilesInUse.containsKey(files[i])) {
+                size -= files[i].length();
+                files[i].delete();
+            }
+        }
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        return MIME_TYPE;
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection,
+            @Nullable String selection, @Nullable String[] selectionArgs,
+            @Nullable String sortOrder) {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        throw new UnsupportedOperationException("Poster art is read only");
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection,
+            @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("Poster art is read only");
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values,
+            @Nullable String selection, @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("Poster art is read only");
+    }
+}
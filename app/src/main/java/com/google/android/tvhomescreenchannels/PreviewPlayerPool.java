@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.tvhomescreenchannels;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Keeps the players of the preview sessions warm between tunes. Players released by a session
+ * are reset and kept for the next tune, and the players not in use prepare the clips the user is
+ * likely to tune to next, so that a tune to one of them starts from a prepared player.
+ * The pool never holds more than "MAX_POOLED_PLAYERS" players besides those in use by sessions,
+ * or "LOW_RAM_MAX_POOLED_PLAYERS" on low RAM devices, so at most that many clips are buffered
+ * ahead at once. It is only used on the main thread.
+ */
+final class PreviewPlayerPool {
+    private static final String TAG = "PreviewPlayerPool";
+    private static final int MAX_POOLED_PLAYERS = 2;
+    private static final int LOW_RAM_MAX_POOLED_PLAYERS = 1;
+
+    private final int mMaxPooledPlayers;
+    private final VideoCacheProxy mVideoCacheProxy;
+    // Reset players ready for any clip.
+    private final ArrayDeque<MediaPlayer> mIdlePlayers = new ArrayDeque<>();
+    // Players preparing or prepared ahead for a clip, by clip id, least recently asked for first.
+    private final LinkedHashMap<String, PooledPlayer> mWarmPlayers = new LinkedHashMap<>();
+
+    PreviewPlayerPool(Context context) {
+        boolean lowRam = context.getSystemService(ActivityManager.class).isLowRamDevice();
+        mMaxPooledPlayers = lowRam ? LOW_RAM_MAX_POOLED_PLAYERS : MAX_POOLED_PLAYERS;
+        mVideoCacheProxy = VideoCacheProxy.getInstance(context);
+    }
+
+    /**
+     * Returns a player for "clip" that is prepared or preparing, or null if its data source
+     * could not be set. The caller owns the player until it gives it back with "recycle()".
+     */
+    @Nullable
+    PooledPlayer acquire(Clip clip) {
+        PooledPlayer player = mWarmPlayers.remove(clip.getClipId());
+        if (player != null) {
+            return player;
+        }
+        MediaPlayer mediaPlayer = mIdlePlayers.poll();
+        player = new PooledPlayer(mediaPlayer != null ? mediaPlayer : new MediaPlayer(), clip);
+        if (!player.prepare()) {
+            player.mMediaPlayer.release();
+            return null;
+        }
+        return player;
+    }
+
+    /**
+     * Takes back a player acquired from the pool. It is stopped and kept if the pool has room for
+     * it, and released otherwise.
+     */
+    void recycle(PooledPlayer player) {
+        MediaPlayer mediaPlayer = player.mMediaPlayer;
+        mediaPlayer.reset();
+        if (getPooledPlayerCount() < mMaxPooledPlayers) {
+            mIdlePlayers.add(mediaPlayer);
+        } else {
+            mediaPlayer.release();
+        }
+    }
+
+    /**
+     * Prepares "clips" ahead of a tune, the first ones first, with the players of the pool. Clips
+     * prepared earlier and not in "clips" give their players up first.
+     */
+    void prebuffer(List<Clip> clips) {
+        for (Clip clip : clips) {
+            PooledPlayer player = mWarmPlayers.remove(clip.getClipId());
+            if (player == null) {
+                MediaPlayer mediaPlayer = obtainPlayer(clips);
+                if (mediaPlayer == null) {
+                    return;
+                }
+                player = new PooledPlayer(mediaPlayer, clip);
+                if (!player.prepare()) {
+                    mediaPlayer.reset();
+                    mIdlePlayers.add(mediaPlayer);
+                    continue;
+                }
+            }
+            // Marks it as the most recently asked for.
+            mWarmPlayers.put(clip.getClipId(), player);
+        }
+    }
+
+    /**
+     * Releases every pooled player.
+     */
+    void release() {
+        for (MediaPlayer mediaPlayer : mIdlePlayers) {
+            mediaPlayer.release();
+        }
+        mIdlePlayers.clear();
+        for (PooledPlayer player : mWarmPlayers.values()) {
+            player.mMediaPlayer.release();
+        }
+        mWarmPlayers.clear();
+    }
+
+    private int getPooledPlayerCount() {
+        return mIdlePlayers.size() + mWarmPlayers.size();
+    }
+
+    /**
+     * Returns a reset player to prepare one of "clips" with, or null if the pool is full of
+     * players already prepared for "clips".
+     */
+    @Nullable
+    private MediaPlayer obtainPlayer(List<Clip> clips) {
+        MediaPlayer mediaPlayer = mIdlePlayers.poll();
+        if (mediaPlayer != null) {
+            return mediaPlayer;
+        }
+        if (getPooledPlayerCount() < mMaxPooledPlayers) {
+            return new MediaPlayer();
+        }
+        Iterator<PooledPlayer> iterator = mWarmPlayers.values().iterator();
+        while (iterator.hasNext()) {
+            PooledPlayer player = iterator.next();
+            if (!clips.contains(player.mClip)) {
+                iterator.remove();
+                player.mMediaPlayer.reset();
+                return player.mMediaPlayer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A player of the pool and the clip it is prepared for. Until a session acquires it, the pool
+     * listens to its callbacks to know when it is prepared and to drop it if it fails.
+     */
+    final class PooledPlayer implements MediaPlayer.OnPreparedListener,
+            MediaPlayer.OnErrorListener {
+        private final MediaPlayer mMediaPlayer;
+        private final Clip mClip;
+        private boolean mPrepared;
+
+        PooledPlayer(MediaPlayer mediaPlayer, Clip clip) {
+            mMediaPlayer = mediaPlayer;
+            mClip = clip;
+        }
+
+        MediaPlayer getMediaPlayer() {
+            return mMediaPlayer;
+        }
+
+        /**
+         * Returns whether the player is prepared. If it is not, the session that acquired it is
+         * told by its own OnPreparedListener.
+         */
+        boolean isPrepared() {
+            return mPrepared;
+        }
+
+        private boolean prepare() {
+            mMediaPlayer.setOnPreparedListener(this);
+            mMediaPlayer.setOnErrorListener(this);
+            mMediaPlayer.setOnInfoListener(null);
+            try {
+                mMediaPlayer.setDataSource(
+                        mVideoCacheProxy.getProxyUri(mClip.getPreviewVideoUrl()).toString());
+            } catch (IOException e) {
+                Log.e(TAG, "Could not set the data source " + mClip.getClipId(), e);
+                return false;
+            }
+            mMediaPlayer.prepareAsync();
+            return true;
+        }
+
+        @Override
+        public void onPrepared(MediaPlayer mediaPlayer) {
+            mPrepared = true;
+        }
+
+        @Override
+        public boolean onError(MediaPlayer mediaPlayer, int what, int extra) {
+            Log.e(TAG, "Could not prebuffer " + mClip.getClipId() + ", error " + what);
+            if (mWarmPlayers.get(mClip.getClipId()) == this) {
+                mWarmPlayers.remove(mClip.getClipId());
+                recycle(this);
+            }
+            return true;
+        }
+    }
+}
@@ -21,19 +21,44 @@ import android.media.MediaPlayer;
 import android.media.tv.TvInputManager;
 import android.media.tv.TvInputService;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.util.Log;
 import android.view.Surface;
 
-import com.google.android.tvhomescreenchannels.SampleClipApi.GetClipByIdListener;
-
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Plays video previews on a surface on the home screen.
+ * A tune resolves the clip from the catalog's index and prepares the player asynchronously, so
+ * the main thread never waits on the network. A tune that arrives while the previous one is still
+ * preparing resets the player, which drops the stale prepare. The video is only reported available
+ * once its first frame is rendered, and the time from the tune to that frame is logged.
+ * The sessions take their players from a "PreviewPlayerPool" and have it prepare the clips next
+ * to the tuned one in its channel, in the order of their weights, so that moving to the next or
+ * previous program usually starts from a prepared player.
  */
 public class PreviewVideoInputService extends TvInputService {
     private static final String TAG = "PreviewVideoInputService";
+    // The number of clips on each side of the tuned clip that are prepared ahead.
+    private static final int PREBUFFER_DISTANCE = 1;
+    private PreviewPlayerPool mPlayerPool;
+    // The tunes that rendered a frame since the service was created, and their total latency.
+    private int mTuneCount;
+    private long mTotalTuneLatencyMs;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mPlayerPool = new PreviewPlayerPool(this);
+    }
+
+    @Override
+    public void onDestroy() {
+        mPlayerPool.release();
+        super.onDestroy();
+    }
 
     @Nullable
     @Override
@@ -42,67 +67,151 @@ public class PreviewVideoInputService extends TvInputService {
         return new PreviewSession(this);
     }
 
-    private class PreviewSession extends TvInputService.Session {
+    private void reportTuneLatency(String clipId, long latencyMs) {
+        ++mTuneCount;
+        mTotalTuneLatencyMs += latencyMs;
+        Log.i(TAG, "Tuned " + clipId + " in " + latencyMs + " ms, average "
+                + mTotalTuneLatencyMs / mTuneCount + " ms over " + mTuneCount + " tunes");
+    }
+
+    /**
+     * Returns the clips next to "clip" in its channel that are still published, the following
+     * ones first. The programs of a channel are weighted in the order of the playlist's clips.
+     */
+    private static List<Clip> getNeighbouringClips(Clip clip) {
+        List<Clip> neighbours = new ArrayList<>();
+        Playlist playlist = SampleClipApi.findPlaylistByClipId(clip.getClipId());
+        if (playlist == null) {
+            return neighbours;
+        }
+        List<Clip> clips = playlist.getClips();
+        int index = clips.indexOf(clip);
+        addNeighbouringClips(neighbours, clips, index, 1);
+        addNeighbouringClips(neighbours, clips, index, -1);
+        return neighbours;
+    }
+
+    private static void addNeighbouringClips(List<Clip> neighbours, List<Clip> clips, int index,
+            int direction) {
+        SampleContentDb sampleContentDb = SampleContentDb.peekInstance();
+        int added = 0;
+        for (int i = index + direction; i >= 0 && i < clips.size() && added < PREBUFFER_DISTANCE;
+                i += direction) {
+            Clip clip = clips.get(i);
+            if (sampleContentDb == null || !sampleContentDb.isClipRemoved(clip.getClipId())) {
+                neighbours.add(clip);
+                ++added;
+            }
+        }
+    }
+
+    private class PreviewSession extends TvInputService.Session
+            implements MediaPlayer.OnPreparedListener, MediaPlayer.OnInfoListener,
+            MediaPlayer.OnErrorListener {
 
-        private MediaPlayer mPlayer;
-        private final GetClipByIdListener mGetClipByIdListener;
+        // The player of the tuned clip, or null if there is none.
+        private PreviewPlayerPool.PooledPlayer mPlayer;
+        private Surface mSurface;
+        private float mVolume = 1.0f;
+        // The clip being tuned or played, or null if there is none.
+        private String mTunedClipId;
+        private long mTuneStartTimeMs;
+        private boolean mVideoAvailable;
 
         PreviewSession(Context context) {
             super(context);
-            mPlayer = new MediaPlayer();
-
-            mGetClipByIdListener = new GetClipByIdListener() {
-                @Override
-                public void onGetClipById(Clip clip) {
-                    try {
-                        mPlayer.setDataSource(clip.getPreviewVideoUrl());
-                        mPlayer.prepare();
-                        mPlayer.start();
-
-                        notifyVideoAvailable();
-                    } catch (IOException e) {
-                        Log.e(TAG, "Could not prepare media mPlayer", e);
-                        notifyVideoUnavailable(TvInputManager.VIDEO_UNAVAILABLE_REASON_UNKNOWN);
-                    }
-                }
-            };
         }
 
         @Override
         public boolean onTune(Uri channelUri) {
-
             notifyVideoUnavailable(VIDEO_UNAVAILABLE_REASON_TUNING);
+            // Giving the player back resets it, which drops a prepare still in flight for the
+            // previous clip along with its callbacks.
+            releasePlayer();
+            mVideoAvailable = false;
+            mTuneStartTimeMs = SystemClock.elapsedRealtime();
 
             String clipId = channelUri.getLastPathSegment();
+            Clip clip = SampleClipApi.getClipByIdBlocking(clipId);
+            if (clip == null) {
+                Log.e(TAG, "Unknown clip " + clipId);
+                notifyVideoUnavailable(TvInputManager.VIDEO_UNAVAILABLE_REASON_UNKNOWN);
+                return false;
+            }
+            mPlayer = mPlayerPool.acquire(clip);
+            if (mPlayer == null) {
+                notifyVideoUnavailable(TvInputManager.VIDEO_UNAVAILABLE_REASON_UNKNOWN);
+                return false;
+            }
+            MediaPlayer player = mPlayer.getMediaPlayer();
+            player.setOnPreparedListener(this);
+            player.setOnInfoListener(this);
+            player.setOnErrorListener(this);
+            player.setSurface(mSurface);
+            player.setVolume(mVolume, mVolume);
+            mTunedClipId = clipId;
+            if (mPlayer.isPrepared()) {
+                player.start();
+            }
+            mPlayerPool.prebuffer(getNeighbouringClips(clip));
+            return true;
+        }
+
+        @Override
+        public void onPrepared(MediaPlayer player) {
+            if (mPlayer != null && player == mPlayer.getMediaPlayer()) {
+                player.start();
+            }
+        }
 
-            SampleClipApi.getClipById(clipId, mGetClipByIdListener);
+        @Override
+        public boolean onInfo(MediaPlayer player, int what, int extra) {
+            if (what == MediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START && mTunedClipId != null
+                    && !mVideoAvailable) {
+                mVideoAvailable = true;
+                notifyVideoAvailable();
+                reportTuneLatency(mTunedClipId, SystemClock.elapsedRealtime() - mTuneStartTimeMs);
+            }
+            return false;
+        }
 
+        @Override
+        public boolean onError(MediaPlayer player, int what, int extra) {
+            Log.e(TAG, "Could not play " + mTunedClipId + ", error " + what + " " + extra);
+            mTunedClipId = null;
+            notifyVideoUnavailable(TvInputManager.VIDEO_UNAVAILABLE_REASON_UNKNOWN);
             return true;
         }
 
         @Override
         public boolean onSetSurface(@Nullable Surface surface) {
+            mSurface = surface;
             if (mPlayer != null) {
-                mPlayer.setSurface(surface);
+                mPlayer.getMediaPlayer().setSurface(surface);
             }
             return true;
         }
 
         @Override
         public void onRelease() {
-            SampleClipApi.cancelGetClipById(mGetClipByIdListener);
+            releasePlayer();
+        }
+
+        private void releasePlayer() {
             if (mPlayer != null) {
-                mPlayer.release();
+                mPlayerPool.recycle(mPlayer);
+                mPlayer = null;
             }
-            mPlayer = null;
+            mTunedClipId = null;
         }
 
         @Override
         public void onSetStreamVolume(float volume) {
+            mVolume = volume;
             if (mPlayer != null) {
                 // The home screen may control the video's volume. Your player should be updated
                 // accordingly.
-                mPlayer.setVolume(volume, volume);
+                mPlayer.getMediaPlayer().setVolume(volume, volume);
             }
         }
 
@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.tvhomescreenchannels;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.support.annotation.WorkerThread;
+import android.support.media.tv.TvContractCompat;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A local mirror of the channel, preview program and watch next rows this app has published to
+ * the TV provider, keyed by both the provider row id and our internal provider id (playlist id or
+ * clip id). Every insert and delete made through "SampleTvProvider" is recorded here so that the
+ * id mappings can be looked up without querying the TV provider.
+ * The mirror is checked against the provider with "verify()", which only compares the row count
+ * and the largest row id of each table and rebuilds a table from a full scan when they differ.
+ */
+class ProviderIdMirror extends SQLiteOpenHelper {
+    static final int KIND_CHANNEL = 0;
+    static final int KIND_PROGRAM = 1;
+    static final int KIND_WATCH_NEXT = 2;
+    private static final int KIND_COUNT = 3;
+
+    private static final String TAG = "ProviderIdMirror";
+    private static final String DATABASE_NAME = "provider_id_mirror.db";
+    private static final int DATABASE_VERSION = 2;
+
+    private static final String TABLE_ROWS = "published_rows";
+    private static final String COLUMN_KIND = "kind";
+    private static final String COLUMN_ROW_ID = "row_id";
+    private static final String COLUMN_INTERNAL_ID = "internal_id";
+    private static final String COLUMN_PARENT_ID = "parent_id";
+    private static final String COLUMN_DATA = "data";
+    private static final String[] ROWS_PROJECTION =
+            {COLUMN_KIND, COLUMN_ROW_ID, COLUMN_INTERNAL_ID, COLUMN_PARENT_ID, COLUMN_DATA};
+
+    /**
+     * The TV provider tables mirrored by each kind.
+     */
+    private static final Uri[] KIND_CONTENT_URIS = {
+            TvContractCompat.Channels.CONTENT_URI,
+            TvContractCompat.PreviewPrograms.CONTENT_URI,
+            TvContractCompat.WatchNextPrograms.CONTENT_URI,
+    };
+    private static final String[] ID_PROJECTION = {BaseColumns._ID};
+    private static final String ID_DESCENDING = BaseColumns._ID + " DESC";
+
+    private static ProviderIdMirror sProviderIdMirror = null;
+
+    // Rows by provider row id, one map per kind.
+    private final List<Map<Long, Row>> mRowsById = new ArrayList<>(KIND_COUNT);
+    // Rows by internal provider id and then by row id, one map per kind. The same clip can be
+    // published once in each channel, so an internal provider id can have several rows.
+    private final List<Map<String, Map<Long, Row>>> mRowsByInternalId =
+            new ArrayList<>(KIND_COUNT);
+    // Program rows grouped by the channel they belong to.
+    private final Map<Long, Map<Long, Row>> mProgramsByChannel = new HashMap<>();
+    private boolean mLoaded = false;
+
+    private ProviderIdMirror(Context context) {
+        super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+        for (int kind = 0; kind < KIND_COUNT; ++kind) {
+            mRowsById.add(new LinkedHashMap<Long, Row>());
+            mRowsByInternalId.add(new HashMap<String, Map<Long, Row>>());
+        }
+    }
+
+    static synchronized ProviderIdMirror getInstance(Context context) {
+        if (sProviderIdMirror == null) {
+            sProviderIdMirror = new ProviderIdMirror(context);
+        }
+        return sProviderIdMirror;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_ROWS + " ("
+                + COLUMN_KIND + " INTEGER NOT NULL, "
+                + COLUMN_ROW_ID + " INTEGER NOT NULL, "
+                + COLUMN_INTERNAL_ID + " TEXT, "
+                + COLUMN_PARENT_ID + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_DATA + " TEXT, "
+                + "PRIMARY KEY (" + COLUMN_KIND + ", " + COLUMN_ROW_ID + "))");
+        db.execSQL("CREATE INDEX " + TABLE_ROWS + "_internal_id_index ON " + TABLE_ROWS + " ("
+                + COLUMN_KIND + ", " + COLUMN_INTERNAL_ID + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The mirror can always be rebuilt from the TV provider.
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_ROWS);
+        onCreate(db);
+    }
+
+    /**
+     * Compares the row count and largest row id of each mirrored table with the TV provider and
+     * rebuilds the tables that have drifted from a full scan.
+     */
+    @WorkerThread
+    synchronized void verify(TvProviderGateway gateway) {
+        for (int kind = 0; kind < KIND_COUNT; ++kind) {
+            verify(gateway, kind);
+        }
+    }
+
+    /**
+     * Same as "verify(TvProviderGateway)" for the table of "kind" only. The count and the largest
+     * row id are each read with a query returning a single row. Only if the provider doesn't
+     * support those queries are they read from a scan of every row id.
+     */
+    @WorkerThread
+    synchronized void verify(TvProviderGateway gateway, int kind) {
+        ensureLoaded();
+        Uri uri = KIND_CONTENT_URIS[kind];
+        long count = gateway.queryCount(uri);
+        long maxId = count >= 0 ? gateway.queryMaxId(uri) : -1;
+        if (maxId < 0) {
+            try (Cursor cursor = gateway.query(uri, ID_PROJECTION, null, null, ID_DESCENDING)) {
+                if (cursor == null) {
+                    return;
+                }
+                count = cursor.getCount();
+                maxId = cursor.moveToFirst() ? cursor.getLong(0) : 0;
+            }
+        }
+        Map<Long, Row> rows = mRowsById.get(kind);
+        if (count != rows.size() || maxId != maxKey(rows)) {
+            Log.d(TAG, "Rebuilding mirror of " + uri);
+            rebuild(gateway, kind);
+        }
+    }
+
+    /**
+     * Returns the rows of "kind" in the order they were recorded.
+     */
+    @WorkerThread
+    synchronized List<Row> getRows(int kind) {
+        ensureLoaded();
+        return new ArrayList<>(mRowsById.get(kind).values());
+    }
+
+    /**
+     * Returns the program rows of the channel "channelId".
+     */
+    @WorkerThread
+    synchronized List<Row> getPrograms(long channelId) {
+        ensureLoaded();
+        Map<Long, Row> programs = mProgramsByChannel.get(channelId);
+        if (programs == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(programs.values());
+    }
+
+    @WorkerThread
+    synchronized void put(int kind, long rowId, String internalId, long parentId, String data) {
+        ensureLoaded();
+        Row row = new Row(kind, rowId, internalId, parentId, data);
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_KIND, kind);
+        values.put(COLUMN_ROW_ID, rowId);
+        values.put(COLUMN_INTERNAL_ID, internalId);
+        values.put(COLUMN_PARENT_ID, parentId);
+        values.put(COLUMN_DATA, data);
+        getWritableDatabase().insertWithOnConflict(TABLE_ROWS, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+        removeFromMemory(kind, rowId);
+        addToMemory(row);
+    }
+
+    /**
+     * Replaces the data recorded for an existing row.
+     */
+    @WorkerThread
+    synchronized void updateData(int kind, long rowId, String data) {
+        ensureLoaded();
+        Row row = mRowsById.get(kind).get(rowId);
+        if (row != null) {
+            put(kind, rowId, row.mInternalId, row.mParentId, data);
+        }
+    }
+
+    @WorkerThread
+    synchronized void remove(int kind, long rowId) {
+        ensureLoaded();
+        SQLiteDatabase db = getWritableDatabase();
+        db.delete(TABLE_ROWS, COLUMN_KIND + " = ? AND " + COLUMN_ROW_ID + " = ?",
+                new String[]{Integer.toString(kind), Long.toString(rowId)});
+        if (kind == KIND_CHANNEL) {
+            // The TV provider deletes the programs of a channel along with it.
+            db.delete(TABLE_ROWS, COLUMN_KIND + " = ? AND " + COLUMN_PARENT_ID + " = ?",
+                    new String[]{Integer.toString(KIND_PROGRAM), Long.toString(rowId)});
+            Map<Long, Row> programs = mProgramsByChannel.remove(rowId);
+            if (programs != null) {
+                for (Long programId : new ArrayList<>(programs.keySet())) {
+                    removeFromMemory(KIND_PROGRAM, programId);
+                }
+            }
+        }
+        removeFromMemory(kind, rowId);
+    }
+
+    /**
+     * Removes every row of "kind" recorded for "internalId", whatever channel it belongs to.
+     */
+    @WorkerThread
+    synchronized void removeByInternalId(int kind, String internalId) {
+        ensureLoaded();
+        Map<Long, Row> rows = mRowsByInternalId.get(kind).get(internalId);
+        if (rows == null) {
+            return;
+        }
+        for (Long rowId : new ArrayList<>(rows.keySet())) {
+            remove(kind, rowId);
+        }
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        try (Cursor cursor = getReadableDatabase().query(TABLE_ROWS, ROWS_PROJECTION, null, null,
+                null, null, null)) {
+            while (cursor.moveToNext()) {
+                addToMemory(new Row(cursor.getInt(0), cursor.getLong(1), cursor.getString(2),
+                        cursor.getLong(3), cursor.getString(4)));
+            }
+        }
+        mLoaded = true;
+    }
+
+    private void rebuild(TvProviderGateway gateway, int kind) {
+        String[] projection;
+        switch (kind) {
+            case KIND_PROGRAM:
+                projection = new String[]{BaseColumns._ID,
+                        TvContractCompat.PreviewPrograms.COLUMN_INTERNAL_PROVIDER_ID,
+                        TvContractCompat.PreviewPrograms.COLUMN_CHANNEL_ID,
+                        TvContractCompat.PreviewPrograms.COLUMN_INTERNAL_PROVIDER_DATA};
+                break;
+            case KIND_CHANNEL:
+                projection = new String[]{BaseColumns._ID,
+                        TvContractCompat.Channels.COLUMN_INTERNAL_PROVIDER_ID,
+                        TvContractCompat.Channels.COLUMN_VERSION_NUMBER};
+                break;
+            default:
+                projection = new String[]{BaseColumns._ID,
+                        TvContractCompat.WatchNextPrograms.COLUMN_INTERNAL_PROVIDER_ID};
+                break;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try (Cursor cursor = gateway.query(KIND_CONTENT_URIS[kind], projection, null, null,
+                null)) {
+            if (cursor == null) {
+                return;
+            }
+            db.delete(TABLE_ROWS, COLUMN_KIND + " = ?", new String[]{Integer.toString(kind)});
+            for (Long rowId : new ArrayList<>(mRowsById.get(kind).keySet())) {
+                removeFromMemory(kind, rowId);
+            }
+            ContentValues values = new ContentValues();
+            while (cursor.moveToNext()) {
+                Row row;
+                if (kind == KIND_PROGRAM) {
+                    row = new Row(kind, cursor.getLong(0), cursor.getString(1),
+                            cursor.getLong(2),
+                            SampleTvProvider.decodeFingerprint(cursor.getBlob(3)));
+                } else if (kind == KIND_CHANNEL) {
+                    row = new Row(kind, cursor.getLong(0), cursor.getString(1), 0,
+                            cursor.getString(2));
+                } else {
+                    row = new Row(kind, cursor.getLong(0), cursor.getString(1), 0, null);
+                }
+                values.clear();
+                values.put(COLUMN_KIND, kind);
+                values.put(COLUMN_ROW_ID, row.mRowId);
+                values.put(COLUMN_INTERNAL_ID, row.mInternalId);
+                values.put(COLUMN_PARENT_ID, row.mParentId);
+                values.put(COLUMN_DATA, row.mData);
+                db.insertWithOnConflict(TABLE_ROWS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                addToMemory(row);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void addToMemory(Row row) {
+        mRowsById.get(row.mKind).put(row.mRowId, row);
+        if (row.mInternalId != null) {
+            Map<Long, Row> rows = mRowsByInternalId.get(row.mKind).get(row.mInternalId);
+            if (rows == null) {
+                rows = new HashMap<>();
+                mRowsByInternalId.get(row.mKind).put(row.mInternalId, rows);
+            }
+            rows.put(row.mRowId, row);
+        }
+        if (row.mKind == KIND_PROGRAM) {
+            Map<Long, Row> programs = mProgramsByChannel.get(row.mParentId);
+            if (programs == null) {
+                programs = new LinkedHashMap<>();
+                mProgramsByChannel.put(row.mParentId, programs);
+            }
+            programs.put(row.mRowId, row);
+        }
+    }
+
+    private void removeFromMemory(int kind, long rowId) {
+        Row row = mRowsById.get(kind).remove(rowId);
+        if (row == null) {
+            return;
+        }
+        if (row.mInternalId != null) {
+            Map<Long, Row> rows = mRowsByInternalId.get(kind).get(row.mInternalId);
+            if (rows != null) {
+                rows.remove(rowId);
+                if (rows.isEmpty()) {
+                    mRowsByInternalId.get(kind).remove(row.mInternalId);
+                }
+            }
+        }
+        if (kind == KIND_PROGRAM) {
+            Map<Long, Row> programs = mProgramsByChannel.get(row.mParentId);
+            if (programs != null) {
+                programs.remove(rowId);
+            }
+        }
+    }
+
+    private static long maxKey(Map<Long, Row> rows) {
+        long maxId = 0;
+        for (Long rowId : rows.keySet()) {
+            maxId = Math.max(maxId, rowId);
+        }
+        return maxId;
+    }
+
+    /**
+     * A published row. "mParentId" is the channel id of a program. "mData" holds the playlist
+     * version of a channel and the clip fingerprint of a program, which is what the
+     * synchronization compares against the catalog.
+     */
+    static final class Row {
+        final int mKind;
+        final long mRowId;
+        final String mInternalId;
+        final long mParentId;
+        final String mData;
+
+        Row(int kind, long rowId, String internalId, long parentId, String data) {
+            mKind = kind;
+            mRowId = rowId;
+            mInternalId = internalId;
+            mParentId = parentId;
+            mData = data;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.tvhomescreenchannels;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.AnyThread;
+import android.support.annotation.MainThread;
+import android.support.media.tv.TvContractCompat;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A process wide cache of the channels this app has published and their programs, as loaded by
+ * "LoadPublishedChannels". It observes the channels and preview programs of the TV provider and
+ * only reloads the channels that were notified as changed, so that returning to the app when
+ * nothing has changed does not query the TV provider at all.
+ * The observed tables are shared by every app, so notifications for rows the cache doesn't know
+ * are ignored. Channels and programs this app inserts are invalidated explicitly instead, with
+ * "postInvalidateChannel()".
+ * It is only used on the main thread.
+ */
+final class PublishedChannelsCache implements LoadPublishedChannels.Listener {
+    private static final String TAG = "PublishedChannelsCache";
+    private static final String CHANNEL_PATH =
+            TvContractCompat.Channels.CONTENT_URI.getLastPathSegment();
+    private static final String PREVIEW_PROGRAM_PATH =
+            TvContractCompat.PreviewPrograms.CONTENT_URI.getLastPathSegment();
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static PublishedChannelsCache sPublishedChannelsCache = null;
+
+    private final Context mContext;
+    // The published channels by channel id, and the channel id of each of their programs.
+    private final Map<Long, LoadPublishedChannels.ChannelPlaylistId> mChannels =
+            new LinkedHashMap<>();
+    private final Map<Long, Long> mProgramChannelIds = new HashMap<>();
+    // The channels notified as changed since they were loaded.
+    private final Set<Long> mStaleChannelIds = new HashSet<>();
+    private final List<LoadPublishedChannels.Listener> mListeners = new ArrayList<>();
+    private boolean mAllStale = true;
+    private LoadPublishedChannels mLoadTask;
+    // The channels reloaded by "mLoadTask", or null if it reloads all of them.
+    private List<Long> mLoadTaskChannelIds;
+
+    private PublishedChannelsCache(Context context) {
+        mContext = context.getApplicationContext();
+        ContentObserver observer = new ContentObserver(sMainHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                invalidate(uri);
+            }
+        };
+        mContext.getContentResolver().registerContentObserver(
+                TvContractCompat.Channels.CONTENT_URI, true, observer);
+        mContext.getContentResolver().registerContentObserver(
+                TvContractCompat.PreviewPrograms.CONTENT_URI, true, observer);
+    }
+
+    @MainThread
+    static PublishedChannelsCache getInstance(Context context) {
+        if (sPublishedChannelsCache == null) {
+            sPublishedChannelsCache = new PublishedChannelsCache(context);
+        }
+        return sPublishedChannelsCache;
+    }
+
+    /**
+     * Calls "listener" with the published channels, right away if none of them has changed since
+     * they were loaded and otherwise once the changed channels have been reloaded.
+     */
+    @MainThread
+    void load(LoadPublishedChannels.Listener listener) {
+        if (mLoadTask == null && !mAllStale && mStaleChannelIds.isEmpty()) {
+            listener.onPublishedChannelsLoaded(getChannels());
+            return;
+        }
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+        startLoadTask();
+    }
+
+    /**
+     * Stops calling "listener" with the result of a load in progress. The load itself carries on
+     * so that its result is cached.
+     */
+    @MainThread
+    void cancel(LoadPublishedChannels.Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Marks the channel "channelId" as changed, for changes that may not have been notified yet.
+     */
+    @MainThread
+    void invalidateChannel(long channelId) {
+        mStaleChannelIds.add(channelId);
+    }
+
+    /**
+     * Same as "invalidateChannel()" from any thread, for the channels and programs this app
+     * inserts. Nothing needs to be invalidated if the cache hasn't been created yet, since its
+     * first load reads every channel.
+     */
+    @AnyThread
+    static void postInvalidateChannel(final long channelId) {
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (sPublishedChannelsCache != null) {
+                    sPublishedChannelsCache.invalidateChannel(channelId);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onPublishedChannelsLoaded(
+            List<LoadPublishedChannels.ChannelPlaylistId> publishedChannels) {
+        if (mLoadTaskChannelIds == null) {
+            mChannels.clear();
+        } else {
+            for (Long channelId : mLoadTaskChannelIds) {
+                mChannels.remove(channelId);
+            }
+        }
+        for (LoadPublishedChannels.ChannelPlaylistId channel : publishedChannels) {
+            mChannels.put(channel.mChannelId, channel);
+        }
+        mProgramChannelIds.clear();
+        for (LoadPublishedChannels.ChannelPlaylistId channel : mChannels.values()) {
+            for (LoadPublishedChannels.ProgramClipId program : channel.mProgramClipIds) {
+                mProgramChannelIds.put(program.mProgramId, channel.mChannelId);
+            }
+        }
+        mLoadTask = null;
+        mLoadTaskChannelIds = null;
+
+        if (mAllStale || !mStaleChannelIds.isEmpty()) {
+            // More channels changed while loading.
+            startLoadTask();
+            return;
+        }
+        List<LoadPublishedChannels.Listener> listeners = new ArrayList<>(mListeners);
+        mListeners.clear();
+        for (LoadPublishedChannels.Listener listener : listeners) {
+            listener.onPublishedChannelsLoaded(getChannels());
+        }
+    }
+
+    private List<LoadPublishedChannels.ChannelPlaylistId> getChannels() {
+        return new ArrayList<>(mChannels.values());
+    }
+
+    private void startLoadTask() {
+        if (mLoadTask != null) {
+            return;
+        }
+        mLoadTaskChannelIds = mAllStale ? null : new ArrayList<>(mStaleChannelIds);
+        mAllStale = false;
+        mStaleChannelIds.clear();
+        mLoadTask = new LoadPublishedChannels(mContext, this, mLoadTaskChannelIds);
+        mLoadTask.execute();
+    }
+
+    /**
+     * Marks the channel of "uri" as changed if it is one of the cached channels or one of their
+     * programs. Any other row belongs to another app, or is one this app has just inserted and
+     * invalidates with "postInvalidateChannel()".
+     */
+    private void invalidate(Uri uri) {
+        List<String> paths = uri != null ? uri.getPathSegments() : null;
+        if (paths == null || paths.size() < 2 || !TextUtils.isDigitsOnly(paths.get(1))) {
+            return;
+        }
+        long id = Long.parseLong(paths.get(1));
+        Long channelId = null;
+        if (TextUtils.equals(paths.get(0), CHANNEL_PATH)) {
+            channelId = mChannels.containsKey(id) ? id : null;
+        } else if (TextUtils.equals(paths.get(0), PREVIEW_PROGRAM_PATH)) {
+            channelId = mProgramChannelIds.get(id);
+        }
+        if (channelId != null) {
+            mStaleChannelIds.add(channelId);
+        } else {
+            Log.d(TAG, "Ignoring change of " + uri);
+        }
+    }
+}
@@ -31,18 +31,26 @@ public class RecommendationReceiverActivity extends Activity implements
         SampleClipApi.getClipById(videoId, this);
     }
 
-    public void onGetClipById(Clip clip) {
+    public void onGetClipById(final Clip clip) {
         if (clip != null) {
-            Intent playVideo = new Intent(this, PlaybackActivity.class);
-            playVideo.putExtra(PlaybackActivity.EXTRA_CLIP, clip);
-            playVideo.putExtra(PlaybackActivity.EXTRA_PROGRESS,
-                    SampleContentDb.getInstance(this).getClipProgress(clip.getClipId()));
-            startActivity(playVideo);
+            // The stored progress is read once the database has loaded off the main thread.
+            SampleContentDb.getInstance(this, new SampleContentDb.OnLoadedListener() {
+                @Override
+                public void onSampleContentDbLoaded(SampleContentDb sampleContentDb) {
+                    Intent playVideo = new Intent(RecommendationReceiverActivity.this,
+                            PlaybackActivity.class);
+                    playVideo.putExtra(PlaybackActivity.EXTRA_CLIP, clip);
+                    playVideo.putExtra(PlaybackActivity.EXTRA_PROGRESS,
+                            sampleContentDb.getClipProgress(clip.getClipId()));
+                    startActivity(playVideo);
+                    finish();
+                }
+            });
         } else {
             Toast.makeText(this, getResources().getString(R.string.cant_play_video),
                     Toast.LENGTH_SHORT).show();
+            finish();
         }
-        finish();
     }
 
     @Override
@@ -37,5 +37,6 @@ public class RunOnInstallReceiver extends BroadcastReceiver {
     public void onReceive(Context context, Intent intent) {
         Log.d(TAG, "Synchronizing database");
         SynchronizeDatabaseJobService.schedule(context);
+        ArtworkPrefetchJobService.schedule(context);
     }
 }
\ No newline at end of file
@@ -17,11 +17,13 @@ package com.google.android.tvhomescreenchannels;
 import android.os.AsyncTask;
 import android.support.annotation.WorkerThread;
 import android.support.media.tv.TvContractCompat;
-import android.text.TextUtils;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 class SampleClipApi {
 
@@ -140,8 +142,18 @@ class SampleClipApi {
             "https://img.youtube.com/vi/8hm9ezomDhQ/hqdefault.jpg",
             "https://img.youtube.com/vi/QygpaIJclm4/hqdefault.jpg",
     };
+    /**
+     * The version of the sample playlists. A real server would bump the version of a playlist
+     * whenever its contents change. Version 2 republishes the fingerprints of all programs.
+     * Version 3 republishes their poster art from "PosterArtProvider".
+     */
+    private static final int PLAYLIST_VERSION = 3;
     private static int mNextAspectRatio = TvContractCompat.PreviewProgramColumns.ASPECT_RATIO_16_9;
-    private static List<Playlist> mPlaylists;
+    /*
+     * The catalog is built once and then only read, so readers take it from "sCatalog" without
+     * locking.
+     */
+    private static final AtomicReference<Catalog> sCatalog = new AtomicReference<>();
     /*
      * Generate a repeatable random sequence. The seed values must be non-zero, and these
      * particular values are hand chosen to give a pleasing sequence for "numberOfVideos".
@@ -176,44 +188,61 @@ class SampleClipApi {
         }
     }
 
-    private static void populatePlaylists() {
-        if (mPlaylists == null) {
-            mPlaylists = new ArrayList<>();
-            int videoId = 0;
-            int clipId = 1;
-            int playlistId = 1;
-            final int numberOfDemoChannels = PLAY_LIST_NAMES.length;
-            for (int i = 0; i < numberOfDemoChannels; ++i, ++playlistId) {
-                int numberOfVideos = getNumber() % 5 + 2;
-                List<Clip> videos = new ArrayList<>();
-                for (int j = 0; j < numberOfVideos; ++j, ++videoId, ++clipId) {
-                    int videoIndex = playlistId <= YOUTUBE_PLAYLIST_START_INDEX
-                            ? videoId % YOUTUBE_VIDEO_START_INDEX
-                            : videoId % (VIDEO_TITLES.length - YOUTUBE_VIDEO_START_INDEX)
-                                    + YOUTUBE_VIDEO_START_INDEX;
-                    // Mocking protected videos for half of the playlist.
-                    boolean isVideoProtected = clipId % 2 == 0;
-                    videos.add(new Clip(VIDEO_TITLES[videoIndex], VIDEO_DESCRIPTION,
-                            BG_IMAGE_URLS[videoIndex], CARD_IMAGE_URLS[videoIndex],
-                            VIDEO_URLS[videoIndex], PREVIEW_VIDEO_URLS[videoIndex],
-                            isVideoProtected, "category",
-                            Integer.toString(clipId), Integer.toString(videoIndex),
-                            getNextAspectRatio()));
-                }
-                Collections.shuffle(videos);
-                mPlaylists.add(
-                        new Playlist(PLAY_LIST_NAMES[i], videos, Integer.toString(playlistId)));
+    /**
+     * Returns the current catalog, building it on first use. Only the first build takes a lock so
+     * that the random sequence used to build it is not advanced by two threads at once.
+     */
+    private static Catalog getCatalog() {
+        Catalog catalog = sCatalog.get();
+        if (catalog != null) {
+            return catalog;
+        }
+        synchronized (SampleClipApi.class) {
+            catalog = sCatalog.get();
+            if (catalog == null) {
+                catalog = new Catalog(buildPlaylists());
+                sCatalog.set(catalog);
             }
+            return catalog;
         }
     }
 
+    private static List<Playlist> buildPlaylists() {
+        List<Playlist> playlists = new ArrayList<>();
+        int videoId = 0;
+        int clipId = 1;
+        int playlistId = 1;
+        final int numberOfDemoChannels = PLAY_LIST_NAMES.length;
+        for (int i = 0; i < numberOfDemoChannels; ++i, ++playlistId) {
+            int numberOfVideos = getNumber() % 5 + 2;
+            List<Clip> videos = new ArrayList<>();
+            for (int j = 0; j < numberOfVideos; ++j, ++videoId, ++clipId) {
+                int videoIndex = playlistId <= YOUTUBE_PLAYLIST_START_INDEX
+                        ? videoId % YOUTUBE_VIDEO_START_INDEX
+                        : videoId % (VIDEO_TITLES.length - YOUTUBE_VIDEO_START_INDEX)
+                                + YOUTUBE_VIDEO_START_INDEX;
+                // Mocking protected videos for half of the playlist.
+                boolean isVideoProtected = clipId % 2 == 0;
+                videos.add(new Clip(VIDEO_TITLES[videoIndex], VIDEO_DESCRIPTION,
+                        BG_IMAGE_URLS[videoIndex], CARD_IMAGE_URLS[videoIndex],
+                        VIDEO_URLS[videoIndex], PREVIEW_VIDEO_URLS[videoIndex],
+                        isVideoProtected, "category",
+                        Integer.toString(clipId), Integer.toString(videoIndex),
+                        getNextAspectRatio()));
+            }
+            Collections.shuffle(videos);
+            playlists.add(new Playlist(PLAY_LIST_NAMES[i], Collections.unmodifiableList(videos),
+                    Integer.toString(playlistId), PLAYLIST_VERSION));
+        }
+        return playlists;
+    }
+
     /**
      * In a real application this call could block the UI thread and so should be implemented with
      * completion callback. This is simulated here with an AsyncTask.
      */
     static void getPlaylists(GetPlaylistsListener getPlaylistsListener) {
-        populatePlaylists();
-        new SimulateGetPlaylistsTask(getPlaylistsListener, mPlaylists).execute();
+        new SimulateGetPlaylistsTask(getPlaylistsListener, getCatalog().mPlaylists).execute();
     }
 
     static void cancelGetPlaylists(GetPlaylistsListener getPlaylistsListener) {
@@ -225,8 +254,7 @@ class SampleClipApi {
      */
     @WorkerThread
     static List<Playlist> getPlaylistBlocking() {
-        populatePlaylists();
-        return mPlaylists;
+        return getCatalog().mPlaylists;
     }
 
     /**
@@ -234,17 +262,7 @@ class SampleClipApi {
      * completion callback. This sample does not block, so the call back mechanism is simulated.
      */
     static void getClipById(String clipId, GetClipByIdListener getClipByIdListener) {
-        populatePlaylists();
-        Clip clip = null;
-        for (int i = 0; i < mPlaylists.size() && clip == null; ++i) {
-            List<Clip> clips = mPlaylists.get(i).getClips();
-            for (Clip candidateClip : clips) {
-                if (TextUtils.equals(candidateClip.getClipId(), clipId)) {
-                    clip = candidateClip;
-                    break;
-                }
-            }
-        }
+        Clip clip = getCatalog().mClipsById.get(clipId);
         new SimulateGetClipByIdTask(getClipByIdListener, clip).execute();
     }
 
@@ -254,16 +272,15 @@ class SampleClipApi {
 
     @WorkerThread
     static Clip getClipByIdBlocking(String clipId) {
-        populatePlaylists();
-        for (Playlist playlist : mPlaylists) {
-            List<Clip> clips = playlist.getClips();
-            for (Clip candidateClip : clips) {
-                if (TextUtils.equals(candidateClip.getClipId(), clipId)) {
-                    return candidateClip;
-                }
-            }
-        }
-        return null;
+        return getCatalog().mClipsById.get(clipId);
+    }
+
+    /**
+     * Returns the playlist of the clip "clipId", or null if there is none. Like
+     * "getClipByIdBlocking" this answers on the calling thread.
+     */
+    static Playlist findPlaylistByClipId(String clipId) {
+        return getCatalog().mPlaylistsByClipId.get(clipId);
     }
 
     static List<Clip> getSearchResults(String query) {
@@ -287,22 +304,46 @@ class SampleClipApi {
      * published channels and programs to align with this list.
      */
     static List<Playlist> getDesiredPublishedChannelSet() {
-        populatePlaylists();
+        List<Playlist> playlists = getCatalog().mPlaylists;
         List<Playlist> list = new ArrayList<>();
         // For now, arbitrarily pick the first three channels.
-        for (int i = 0; i < 3 && i < mPlaylists.size(); ++i) {
-            list.add(mPlaylists.get(i));
+        for (int i = 0; i < 3 && i < playlists.size(); ++i) {
+            list.add(playlists.get(i));
         }
         return list;
     }
 
     static Playlist getPlaylistById(String playlistId) {
-        for (Playlist playlist : mPlaylists) {
-            if (TextUtils.equals(playlist.getPlaylistId(), playlistId)) {
-                return playlist;
+        return getCatalog().mPlaylistsById.get(playlistId);
+    }
+
+    /**
+     * An immutable snapshot of the playlists with indexes of their clips by clip id and of the
+     * playlists by playlist id and clip id. Only the published state of the playlists
+     * and clips changes after it is built.
+     */
+    private static final class Catalog {
+        final List<Playlist> mPlaylists;
+        final Map<String, Playlist> mPlaylistsById;
+        final Map<String, Playlist> mPlaylistsByClipId;
+        final Map<String, Clip> mClipsById;
+
+        Catalog(List<Playlist> playlists) {
+            HashMap<String, Playlist> playlistsById = new HashMap<>();
+            HashMap<String, Playlist> playlistsByClipId = new HashMap<>();
+            HashMap<String, Clip> clipsById = new HashMap<>();
+            for (Playlist playlist : playlists) {
+                playlistsById.put(playlist.getPlaylistId(), playlist);
+                for (Clip clip : playlist.getClips()) {
+                    clipsById.put(clip.getClipId(), clip);
+                    playlistsByClipId.put(clip.getClipId(), playlist);
+                }
             }
+            mPlaylists = Collections.unmodifiableList(new ArrayList<>(playlists));
+            mPlaylistsById = Collections.unmodifiableMap(playlistsById);
+            mPlaylistsByClipId = Collections.unmodifiableMap(playlistsByClipId);
+            mClipsById = Collections.unmodifiableMap(clipsById);
         }
-        return null;
     }
 
     interface GetClipByIdListener {
@@ -14,82 +14,324 @@
 
 package com.google.android.tvhomescreenchannels;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.AsyncTask;
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
 
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A sample database emulating a server-base central database capable of tracking:
  * 1. Removed clips 2. Removed programs 3. The latest playback position of a clip to be later
  * replayed if the clip is launched from the watch next row.
+ * The data is kept in an SQLite database keyed by clip id, so every update writes a single row
+ * rather than rewriting everything stored, and every lookup reads a single row by its key.
+ * It is safe to use from any thread. The answers of "isClipRemoved()" and "getClipProgress()" are
+ * cached in bounded concurrent maps filled as clips are looked up, so repeated lookups neither
+ * lock nor allocate. Writers and cache misses are serialized with each other, and writers update
+ * the database before the caches.
  */
 
 public class SampleContentDb {
+    private static final String DATABASE_NAME = "sample_content.db";
+    private static final int DATABASE_VERSION = 1;
+    private static final String TABLE_REMOVED_CLIPS = "removed_clips";
+    private static final String TABLE_CLIPS_PROGRESS = "clips_progress";
+    private static final String COLUMN_CLIP_ID = "clip_id";
+    private static final String COLUMN_PROGRESS = "progress";
+    private static final String CLIP_ID_SELECTION = COLUMN_CLIP_ID + " = ?";
+    private static final String[] REMOVED_CLIPS_PROJECTION = {COLUMN_CLIP_ID};
+    private static final String[] CLIPS_PROGRESS_PROJECTION = {COLUMN_PROGRESS};
+    // The number of clips cached by each of the caches.
+    private static final int MAX_CACHED_CLIPS = 1024;
+    private static final Long NO_PROGRESS = -1L;
+
+    // The SharedPreferences files used before the database, imported when it is created.
     private static final String SAMPLE_LOCAL_DB = "sample_local_db";
     private static final String CLIPS_PROGRESS_DB = "clips_progress_db";
-
     private static final String REMOVED_CLIPS_KEY = "removed_clips_key";
-    private static SampleContentDb sSampleContentDb = null;
-    private final Set<String> mRemovedClips;
-    private final Map<String, Long> mClipsProgress;
 
-    private final Context mContext;
+    private static volatile SampleContentDb sSampleContentDb = null;
+
+    private final DatabaseHelper mDatabaseHelper;
+    // Whether each cached clip is removed, and the progress of each cached clip or "NO_PROGRESS".
+    private final Map<String, Boolean> mRemovedClips = new ConcurrentHashMap<>();
+    private final Map<String, Long> mClipsProgress = new ConcurrentHashMap<>();
+    private final Object mWriteLock = new Object();
 
     private SampleContentDb(Context context) {
-        mContext = context.getApplicationContext();
-        SharedPreferences sampleLocalDbPrefs = mContext.getSharedPreferences(SAMPLE_LOCAL_DB,
-                Context.MODE_PRIVATE);
-        // Creating a copy of the set instance returned by getStringSet since the consistency of the
-        // stored data is not guaranteed if the content is modified according to the docs.
-        Set<String> removedClips = sampleLocalDbPrefs.getStringSet(REMOVED_CLIPS_KEY,
-                new HashSet<String>());
-        mRemovedClips = new HashSet<>(removedClips);
+        this(context, DATABASE_NAME, true);
+    }
 
-        SharedPreferences clipsProgressPrefs = context.getSharedPreferences(CLIPS_PROGRESS_DB,
-                Context.MODE_PRIVATE);
-        Map<String, Long> clipsProgress = (Map<String, Long>) clipsProgressPrefs.getAll();
-        mClipsProgress = new HashMap<>(clipsProgress);
+    /**
+     * Opens the database "databaseName". The data of earlier versions of the app is only imported
+     * into the app's own database.
+     */
+    @VisibleForTesting
+    SampleContentDb(Context context, String databaseName, boolean importSharedPreferences) {
+        mDatabaseHelper = new DatabaseHelper(context.getApplicationContext(), databaseName,
+                importSharedPreferences);
+        // Creates or upgrades the database now rather than on the first lookup.
+        mDatabaseHelper.getWritableDatabase();
     }
 
+    /**
+     * Returns the database, loading it on the calling thread if it has not been loaded yet. If
+     * another thread is already loading it, this blocks until that load completes. Use
+     * "getInstance(Context, OnLoadedListener)" on the main thread instead.
+     */
+    @WorkerThread
     public static SampleContentDb getInstance(Context context) {
-        if (sSampleContentDb == null) {
-            sSampleContentDb = new SampleContentDb(context);
+        SampleContentDb sampleContentDb = sSampleContentDb;
+        if (sampleContentDb == null) {
+            synchronized (SampleContentDb.class) {
+                sampleContentDb = sSampleContentDb;
+                if (sampleContentDb == null) {
+                    sampleContentDb = new SampleContentDb(context);
+                    sSampleContentDb = sampleContentDb;
+                }
+            }
         }
+        return sampleContentDb;
+    }
+
+    /**
+     * Calls "listener" on the main thread with the database, right away if it is already loaded
+     * and otherwise once it has been loaded on a background thread.
+     */
+    @MainThread
+    static void getInstance(Context context, @Nullable final OnLoadedListener listener) {
+        SampleContentDb sampleContentDb = sSampleContentDb;
+        if (sampleContentDb != null) {
+            if (listener != null) {
+                listener.onSampleContentDbLoaded(sampleContentDb);
+            }
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        new AsyncTask<Void, Void, SampleContentDb>() {
+            @Override
+            protected SampleContentDb doInBackground(Void... params) {
+                return getInstance(appContext);
+            }
+
+            @Override
+            protected void onPostExecute(SampleContentDb sampleContentDb) {
+                if (listener != null) {
+                    listener.onSampleContentDbLoaded(sampleContentDb);
+                }
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Starts loading the database on a background thread, so that it is ready by the time it is
+     * first needed.
+     */
+    @MainThread
+    static void warmUp(Context context) {
+        getInstance(context, null);
+    }
+
+    /**
+     * Returns the database if it has been loaded, or null.
+     */
+    @Nullable
+    static SampleContentDb peekInstance() {
         return sSampleContentDb;
     }
 
+    /**
+     * Closes the database. Only instances that aren't shared by the app may be closed.
+     */
+    @VisibleForTesting
+    void close() {
+        mDatabaseHelper.close();
+    }
+
     boolean isClipRemoved(String clipId) {
-        return mRemovedClips.contains(clipId);
+        Boolean removed = mRemovedClips.get(clipId);
+        if (removed == null) {
+            synchronized (mWriteLock) {
+                removed = mRemovedClips.get(clipId);
+                if (removed == null) {
+                    try (Cursor cursor = mDatabaseHelper.getReadableDatabase().query(
+                            TABLE_REMOVED_CLIPS, REMOVED_CLIPS_PROJECTION, CLIP_ID_SELECTION,
+                            new String[]{clipId}, null, null, null)) {
+                        removed = cursor.moveToFirst();
+                    }
+                    cache(mRemovedClips, clipId, removed);
+                }
+            }
+        }
+        return removed;
     }
 
     public void addRemovedClip(String clipId) {
-        if (!mRemovedClips.contains(clipId)) {
-            SharedPreferences sampleLocalDbPrefs = mContext.getSharedPreferences(SAMPLE_LOCAL_DB,
-                    Context.MODE_PRIVATE);
-            mRemovedClips.add(clipId);
-            sampleLocalDbPrefs.edit().putStringSet(REMOVED_CLIPS_KEY, mRemovedClips).apply();
+        synchronized (mWriteLock) {
+            if (Boolean.TRUE.equals(mRemovedClips.get(clipId))) {
+                return;
+            }
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_CLIP_ID, clipId);
+            mDatabaseHelper.getWritableDatabase().insertWithOnConflict(TABLE_REMOVED_CLIPS, null,
+                    values, SQLiteDatabase.CONFLICT_IGNORE);
+            cache(mRemovedClips, clipId, Boolean.TRUE);
         }
     }
 
     void updateClipProgress(String clipId, long progress) {
-        SharedPreferences clipsProgressPrefs = mContext.getSharedPreferences(CLIPS_PROGRESS_DB,
-                Context.MODE_PRIVATE);
-        mClipsProgress.put(clipId, progress);
-        clipsProgressPrefs.edit().putLong(clipId, progress).apply();
+        synchronized (mWriteLock) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_CLIP_ID, clipId);
+            values.put(COLUMN_PROGRESS, progress);
+            mDatabaseHelper.getWritableDatabase().insertWithOnConflict(TABLE_CLIPS_PROGRESS,
+                    null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            cache(mClipsProgress, clipId, progress);
+        }
+    }
+
+    /**
+     * Writes the progress of every clip in "clipsProgress", keyed by clip id, in a single
+     * transaction.
+     */
+    void updateClipProgress(Map<String, Long> clipsProgress) {
+        synchronized (mWriteLock) {
+            SQLiteDatabase db = mDatabaseHelper.getWritableDatabase();
+            ContentValues values = new ContentValues();
+            db.beginTransaction();
+            try {
+                for (Map.Entry<String, Long> entry : clipsProgress.entrySet()) {
+                    values.put(COLUMN_CLIP_ID, entry.getKey());
+                    values.put(COLUMN_PROGRESS, entry.getValue());
+                    db.insertWithOnConflict(TABLE_CLIPS_PROGRESS, null, values,
+                            SQLiteDatabase.CONFLICT_REPLACE);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            for (Map.Entry<String, Long> entry : clipsProgress.entrySet()) {
+                cache(mClipsProgress, entry.getKey(), entry.getValue());
+            }
+        }
     }
 
     void deleteClipProgress(String clipId) {
-        SharedPreferences clipsProgressPrefs = mContext.getSharedPreferences(CLIPS_PROGRESS_DB,
-                Context.MODE_PRIVATE);
-        mClipsProgress.remove(clipId);
-        clipsProgressPrefs.edit().remove(clipId).apply();
+        synchronized (mWriteLock) {
+            mDatabaseHelper.getWritableDatabase().delete(TABLE_CLIPS_PROGRESS, CLIP_ID_SELECTION,
+                    new String[]{clipId});
+            cache(mClipsProgress, clipId, NO_PROGRESS);
+        }
     }
 
+    /**
+     * Returns the latest playback position of "clipId", or -1 if none is stored.
+     */
     long getClipProgress(String clipId) {
-        return mClipsProgress.containsKey(clipId) ? mClipsProgress.get(clipId) : -1;
+        Long progress = mClipsProgress.get(clipId);
+        if (progress == null) {
+            synchronized (mWriteLock) {
+                progress = mClipsProgress.get(clipId);
+                if (progress == null) {
+                    try (Cursor cursor = mDatabaseHelper.getReadableDatabase().query(
+                            TABLE_CLIPS_PROGRESS, CLIPS_PROGRESS_PROJECTION, CLIP_ID_SELECTION,
+                            new String[]{clipId}, null, null, null)) {
+                        progress = cursor.moveToFirst() ? cursor.getLong(0) : NO_PROGRESS;
+                    }
+                    cache(mClipsProgress, clipId, progress);
+                }
+            }
+        }
+        return progress;
+    }
+
+    /**
+     * Puts "value" in "cache", first dropping an entry if the cache is full. It is only called
+     * with "mWriteLock" held.
+     */
+    private static <V> void cache(Map<String, V> cache, String clipId, V value) {
+        if (cache.size() >= MAX_CACHED_CLIPS && !cache.containsKey(clipId)) {
+            Iterator<String> iterator = cache.keySet().iterator();
+            if (iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        cache.put(clipId, value);
+    }
+
+    interface OnLoadedListener {
+        void onSampleContentDbLoaded(SampleContentDb sampleContentDb);
+    }
+
+    private static final class DatabaseHelper extends SQLiteOpenHelper {
+        private final Context mContext;
+        private final boolean mImportSharedPreferences;
+
+        DatabaseHelper(Context context, String databaseName, boolean importSharedPreferences) {
+            super(context, databaseName, null, DATABASE_VERSION);
+            mContext = context;
+            mImportSharedPreferences = importSharedPreferences;
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_REMOVED_CLIPS + " ("
+                    + COLUMN_CLIP_ID + " TEXT PRIMARY KEY NOT NULL)");
+            db.execSQL("CREATE TABLE " + TABLE_CLIPS_PROGRESS + " ("
+                    + COLUMN_CLIP_ID + " TEXT PRIMARY KEY NOT NULL, "
+                    + COLUMN_PROGRESS + " INTEGER NOT NULL)");
+            if (mImportSharedPreferences) {
+                importSharedPreferences(db);
+            }
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+
+        /**
+         * Moves the data stored in SharedPreferences by earlier versions of the app into "db".
+         */
+        private void importSharedPreferences(SQLiteDatabase db) {
+            SharedPreferences sampleLocalDbPrefs = mContext.getSharedPreferences(SAMPLE_LOCAL_DB,
+                    Context.MODE_PRIVATE);
+            Set<String> removedClips = sampleLocalDbPrefs.getStringSet(REMOVED_CLIPS_KEY,
+                    new HashSet<String>());
+            ContentValues values = new ContentValues();
+            for (String clipId : removedClips) {
+                values.put(COLUMN_CLIP_ID, clipId);
+                db.insertWithOnConflict(TABLE_REMOVED_CLIPS, null, values,
+                        SQLiteDatabase.CONFLICT_IGNORE);
+            }
+
+            SharedPreferences clipsProgressPrefs = mContext.getSharedPreferences(
+                    CLIPS_PROGRESS_DB, Context.MODE_PRIVATE);
+            for (Map.Entry<String, ?> entry : clipsProgressPrefs.getAll().entrySet()) {
+                if (entry.getValue() instanceof Long) {
+                    values.clear();
+                    values.put(COLUMN_CLIP_ID, entry.getKey());
+                    values.put(COLUMN_PROGRESS, (Long) entry.getValue());
+                    db.insertWithOnConflict(TABLE_CLIPS_PROGRESS, null, values,
+                            SQLiteDatabase.CONFLICT_REPLACE);
+                }
+            }
+
+            sampleLocalDbPrefs.edit().clear().apply();
+            clipsProgressPrefs.edit().clear().apply();
+        }
     }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.tvhomescreenchannels;
+
+import android.app.ActivityManager;
+import android.content.Context;
+
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.load.engine.bitmap_recycle.LruBitmapPool;
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+import com.bumptech.glide.module.AppGlideModule;
+
+/**
+ * Sizes Glide's caches from the memory class of the device rather than its screen size. Every
+ * image is decoded at the small sizes of "ArtworkLoader", so a few MB hold many screens of
+ * cards, and low RAM devices give a smaller share of their heap to images.
+ */
+@GlideModule
+public final class SampleGlideModule extends AppGlideModule {
+    private static final int MB = 1024 * 1024;
+    // The share of the app's heap, as a divisor, given to the memory cache and the bitmap pool.
+    private static final int MEMORY_CACHE_DIVISOR = 8;
+    private static final int LOW_RAM_MEMORY_CACHE_DIVISOR = 16;
+    private static final int BITMAP_POOL_DIVISOR = 10;
+    private static final int LOW_RAM_BITMAP_POOL_DIVISOR = 32;
+    private static final long DISK_CACHE_SIZE = 250L * MB;
+    private static final long LOW_RAM_DISK_CACHE_SIZE = 100L * MB;
+
+    @Override
+    public void applyOptions(Context context, GlideBuilder builder) {
+        ActivityManager activityManager = context.getSystemService(ActivityManager.class);
+        int heapSize = activityManager.getMemoryClass() * MB;
+        boolean lowRam = activityManager.isLowRamDevice();
+        builder.setMemoryCache(new LruResourceCache(heapSize
+                / (lowRam ? LOW_RAM_MEMORY_CACHE_DIVISOR : MEMORY_CACHE_DIVISOR)));
+        builder.setBitmapPool(new LruBitmapPool(heapSize
+                / (lowRam ? LOW_RAM_BITMAP_POOL_DIVISOR : BITMAP_POOL_DIVISOR)));
+        builder.setDiskCacheFactory(new InternalCacheDiskCacheFactory(context,
+                (int) getDiskCacheSize(context)));
+    }
+
+    @Override
+    public boolean isManifestParsingEnabled() {
+        return false;
+    }
+
+    /**
+     * Returns the size of Glide's disk cache in bytes.
+     */
+    static long getDiskCacheSize(Context context) {
+        return context.getSystemService(ActivityManager.class).isLowRamDevice()
+                ? LOW_RAM_DISK_CACHE_SIZE : DISK_CACHE_SIZE;
+    }
+}
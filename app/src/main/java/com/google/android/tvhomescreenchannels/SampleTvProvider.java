@@ -15,14 +15,14 @@
 package com.google.android.tvhomescreenchannels;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
-import android.provider.BaseColumns;
 import android.support.annotation.DrawableRes;
 import android.support.annotation.WorkerThread;
 import android.support.media.tv.Channel;
@@ -37,7 +37,12 @@ import android.util.Log;
 
 import com.google.android.tvhomescreenchannels.scheduler.ClipData;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class SampleTvProvider {
     /**
@@ -56,27 +61,29 @@ public class SampleTvProvider {
     static final int PROGRAMS_COLUMN_TITLE_INDEX = 2;
     static final int PROGRAMS_COLUMN_INTERNAL_INTERACTION_TYPE_INDEX = 3;
     static final int PROGRAMS_COLUMN_INTERNAL_INTERACTION_COUNT_INDEX = 4;
+    static final int PROGRAMS_COLUMN_CHANNEL_ID_INDEX = 5;
     static final String[] PROGRAMS_MAP_PROJECTION =
             {TvContractCompat.PreviewPrograms._ID,
                     TvContractCompat.PreviewPrograms.COLUMN_INTERNAL_PROVIDER_ID,
                     TvContractCompat.PreviewPrograms.COLUMN_TITLE,
                     TvContractCompat.PreviewProgramColumns.COLUMN_INTERACTION_TYPE,
-                    TvContractCompat.PreviewProgramColumns.COLUMN_INTERACTION_COUNT};
+                    TvContractCompat.PreviewProgramColumns.COLUMN_INTERACTION_COUNT,
+                    TvContractCompat.PreviewPrograms.COLUMN_CHANNEL_ID};
     private static final String TAG = "SampleTvProvider";
     private static final String SCHEME = "tvhomescreenchannels";
     private static final String APPS_LAUNCH_HOST = "com.google.android.tvhomescreenchannels";
     private static final String PLAY_VIDEO_ACTION_PATH = "playvideo";
     private static final String START_APP_ACTION_PATH = "startapp";
+
     /**
-     * Index into "WATCH_NEXT_MAP_PROJECTION" and if that changes, this should change too.
+     * Selections of the watch next rows of a clip that the user has removed, or not.
      */
-    private static final int COLUMN_WATCH_NEXT_ID_INDEX = 0;
-    private static final int COLUMN_WATCH_NEXT_INTERNAL_PROVIDER_ID_INDEX = 1;
-    private static final int COLUMN_WATCH_NEXT_COLUMN_BROWSABLE_INDEX = 2;
-
-    private static final String[] WATCH_NEXT_MAP_PROJECTION =
-            {BaseColumns._ID, TvContractCompat.WatchNextPrograms.COLUMN_INTERNAL_PROVIDER_ID,
-                    TvContractCompat.WatchNextPrograms.COLUMN_BROWSABLE};
+    private static final String REMOVED_WATCH_NEXT_SELECTION = TvProviderGateway.and(
+            TvProviderGateway.INTERNAL_PROVIDER_ID_SELECTION,
+            TvProviderGateway.NOT_BROWSABLE_SELECTION);
+    private static final String BROWSABLE_WATCH_NEXT_SELECTION = TvProviderGateway.and(
+            TvProviderGateway.INTERNAL_PROVIDER_ID_SELECTION,
+            TvProviderGateway.BROWSABLE_SELECTION);
 
     private static final Uri PREVIEW_PROGRAMS_CONTENT_URI =
             Uri.parse("content://android.media.tv/preview_program");
@@ -104,137 +111,92 @@ public class SampleTvProvider {
     }
 
     @WorkerThread
-    public static void addWatchNextContinue(Context context, ClipData clipData) {
+    public static void addWatchNextContinue(TvProviderGateway gateway, ClipData clipData) {
         final String clipId = clipData.getClipId();
         final String contentId = clipData.getContentId();
+        final String[] clipIdArgs = new String[]{clipId};
 
-        // Check if program "key" has already been added.
-        boolean isProgramPresent = false;
-        Cursor cursor = null;
-        try {
-            cursor = context.getContentResolver().query(
-                    TvContractCompat.WatchNextPrograms.CONTENT_URI, WATCH_NEXT_MAP_PROJECTION, null,
-                    null, null);
-            if (cursor != null) {
-                while (cursor.moveToNext()) {
-                    if (!cursor.isNull(COLUMN_WATCH_NEXT_INTERNAL_PROVIDER_ID_INDEX)
-                            && TextUtils.equals(clipId, cursor.getString(
-                            COLUMN_WATCH_NEXT_INTERNAL_PROVIDER_ID_INDEX))) {
-                        // Found a row that contains an equal COLUMN_INTERNAL_PROVIDER_ID.
-                        long watchNextProgramId = cursor.getLong(COLUMN_WATCH_NEXT_ID_INDEX);
-                        // If the clip exists in watch next programs, there are 2 cases:
-                        // 1. The program was not removed by the user (browsable == 1) and we
-                        // only need to update the existing info for that program
-                        // 2. The program was removed by the user from watch next
-                        // (browsable== 0), in which case we will first remove it from watch
-                        // next database and then treat it as a new watch next program to be
-                        // inserted.
-                        if (cursor.getInt(COLUMN_WATCH_NEXT_COLUMN_BROWSABLE_INDEX) == 0) {
-                            int rowsDeleted = context.getContentResolver().delete(
-                                    TvContractCompat.buildWatchNextProgramUri(
-                                            watchNextProgramId), null,
-                                    null);
-                            if (rowsDeleted < 1) {
-                                Log.e(TAG, "Delete program failed");
-                            }
-                        } else {
-                            WatchNextProgram existingProgram = WatchNextProgram.fromCursor(
-                                    cursor);
-                            // Updating the following columns since when a program is added
-                            // manually through the launcher interface to the WatchNext row:
-                            // 1. watchNextType is set to WATCH_NEXT_TYPE_WATCHLIST which
-                            // should be changed to WATCH_NEXT_TYPE_CONTINUE when at least 1
-                            // minute of the video is played.
-                            // 2. The duration may not have been set for the programs in a
-                            // channel row since the video wasn't processed then to set this
-                            // column. Also setting lastPlaybackPosition to maintain the
-                            // correct progressBar upon returning to the launcher.
-                            WatchNextProgram.Builder builder = new WatchNextProgram.Builder(
-                                    existingProgram)
-                                    .setWatchNextType(TvContractCompat.WatchNextPrograms
-                                            .WATCH_NEXT_TYPE_CONTINUE)
-                                    .setLastPlaybackPositionMillis((int) clipData.getProgress())
-                                    .setDurationMillis((int) clipData.getDuration());
-                            ContentValues contentValues = builder.build().toContentValues();
-                            Uri watchNextProgramUri = TvContractCompat.buildWatchNextProgramUri(
-                                    watchNextProgramId);
-                            int rowsUpdated = context.getContentResolver().update(
-                                    watchNextProgramUri,
-                                    contentValues, null, null);
-                            if (rowsUpdated < 1) {
-                                Log.e(TAG, "Update program failed");
-                            }
-                            isProgramPresent = true;
-                        }
-                    }
-                }
-            }
-            if (!isProgramPresent) {
-                WatchNextProgram.Builder builder = new WatchNextProgram.Builder();
-                builder.setType(TvContractCompat.WatchNextPrograms.TYPE_CLIP)
-                        .setWatchNextType(
-                                TvContractCompat.WatchNextPrograms.WATCH_NEXT_TYPE_CONTINUE)
-                        .setLastEngagementTimeUtcMillis(System.currentTimeMillis())
-                        .setTitle(clipData.getTitle())
-                        .setDescription(clipData.getDescription())
-                        .setPosterArtUri(Uri.parse(clipData.getCardImageUrl()))
-                        .setIntentUri(Uri.parse(SCHEME + "://" + APPS_LAUNCH_HOST
-                                + "/" + PLAY_VIDEO_ACTION_PATH + "/" + clipId))
-                        .setInternalProviderId(clipId)
-                        // Setting the contentId to avoid having duplicate programs with the same
-                        // content added to the watch next row (The launcher will use the contentId
-                        // to detect duplicates). Note that, programs of different channels can
-                        // still point to the same content i.e. their contentId can be the same.
-                        .setContentId(contentId)
-                        .setLastPlaybackPositionMillis((int) clipData.getProgress())
-                        .setDurationMillis((int) clipData.getDuration());
-                ContentValues contentValues = builder.build().toContentValues();
-                Uri programUri = context.getContentResolver().insert(
-                        TvContractCompat.WatchNextPrograms.CONTENT_URI, contentValues);
-                if (programUri == null || programUri.equals(Uri.EMPTY)) {
-                    Log.e(TAG, "Insert watch next program failed");
-                }
-            }
-            SampleContentDb.getInstance(context).updateClipProgress(clipId, clipData.getProgress());
-        } finally {
-            if (cursor != null) {
-                cursor.close();
+        // If the clip exists in watch next programs, there are 2 cases:
+        // 1. The program was removed by the user from watch next (browsable == 0), in which case
+        // we will first remove it from watch next database and then treat it as a new watch next
+        // program to be inserted.
+        // 2. The program was not removed by the user (browsable == 1) and we only need to update
+        // the existing info for that program.
+        // Both are selected by COLUMN_INTERNAL_PROVIDER_ID and COLUMN_BROWSABLE so that the
+        // provider finds the rows rather than this app scanning the whole table.
+        int rowsDeleted = gateway.delete(TvContractCompat.WatchNextPrograms.CONTENT_URI,
+                REMOVED_WATCH_NEXT_SELECTION, clipIdArgs);
+        if (rowsDeleted > 0) {
+            ProviderIdMirror.getInstance(gateway.getContext()).removeByInternalId(
+                    ProviderIdMirror.KIND_WATCH_NEXT, clipId);
+        }
+
+        // Updating the following columns since when a program is added manually through the
+        // launcher interface to the WatchNext row:
+        // 1. watchNextType is set to WATCH_NEXT_TYPE_WATCHLIST which should be changed to
+        // WATCH_NEXT_TYPE_CONTINUE when at least 1 minute of the video is played.
+        // 2. The duration may not have been set for the programs in a channel row since the video
+        // wasn't processed then to set this column. Also setting lastPlaybackPosition to maintain
+        // the correct progressBar upon returning to the launcher.
+        // Only these columns are written, so the existing row does not need to be read first.
+        ContentValues updateValues = new WatchNextProgram.Builder()
+                .setWatchNextType(TvContractCompat.WatchNextPrograms.WATCH_NEXT_TYPE_CONTINUE)
+                .setLastPlaybackPositionMillis((int) clipData.getProgress())
+                .setDurationMillis((int) clipData.getDuration())
+                .build().toContentValues();
+        int rowsUpdated = gateway.update(TvContractCompat.WatchNextPrograms.CONTENT_URI,
+                updateValues, BROWSABLE_WATCH_NEXT_SELECTION, clipIdArgs);
+        boolean isProgramPresent = rowsUpdated > 0;
+        if (!isProgramPresent) {
+            WatchNextProgram.Builder builder = new WatchNextProgram.Builder();
+            builder.setType(TvContractCompat.WatchNextPrograms.TYPE_CLIP)
+                    .setWatchNextType(
+                            TvContractCompat.WatchNextPrograms.WATCH_NEXT_TYPE_CONTINUE)
+                    .setLastEngagementTimeUtcMillis(System.currentTimeMillis())
+                    .setTitle(clipData.getTitle())
+                    .setDescription(clipData.getDescription())
+                    .setPosterArtUri(PosterArtProvider.buildPosterArtUri(clipId,
+                            clipData.getCardImageUrl()))
+                    .setIntentUri(Uri.parse(SCHEME + "://" + APPS_LAUNCH_HOST
+                            + "/" + PLAY_VIDEO_ACTION_PATH + "/" + clipId))
+                    .setInternalProviderId(clipId)
+                    // Setting the contentId to avoid having duplicate programs with the same
+                    // content added to the watch next row (The launcher will use the contentId
+                    // to detect duplicates). Note that, programs of different channels can
+                    // still point to the same content i.e. their contentId can be the same.
+                    .setContentId(contentId)
+                    .setLastPlaybackPositionMillis((int) clipData.getProgress())
+                    .setDurationMillis((int) clipData.getDuration());
+            ContentValues contentValues = builder.build().toContentValues();
+            Uri programUri = gateway.insert(TvContractCompat.WatchNextPrograms.CONTENT_URI,
+                    contentValues);
+            if (programUri == null || programUri.equals(Uri.EMPTY)) {
+                Log.e(TAG, "Insert watch next program failed");
+            } else {
+                ProviderIdMirror.getInstance(gateway.getContext()).put(
+                        ProviderIdMirror.KIND_WATCH_NEXT, ContentUris.parseId(programUri), clipId,
+                        0, null);
             }
         }
+        SampleContentDb.getInstance(gateway.getContext())
+                .updateClipProgress(clipId, clipData.getProgress());
     }
 
     @WorkerThread
-    public static void deleteWatchNextContinue(Context context, String clipId) {
-        Cursor cursor = null;
-        try {
-            cursor = context.getContentResolver().query(
-                    TvContractCompat.WatchNextPrograms.CONTENT_URI, WATCH_NEXT_MAP_PROJECTION, null,
-                    null, null);
-            if (cursor != null) {
-                while (cursor.moveToNext()) {
-                    if (!cursor.isNull(COLUMN_WATCH_NEXT_INTERNAL_PROVIDER_ID_INDEX)
-                            && TextUtils.equals(clipId, cursor.getString(
-                            COLUMN_WATCH_NEXT_INTERNAL_PROVIDER_ID_INDEX))) {
-                        long watchNextProgramId = cursor.getLong(COLUMN_WATCH_NEXT_ID_INDEX);
-                        int rowsDeleted = context.getContentResolver().delete(
-                                TvContractCompat.buildWatchNextProgramUri(watchNextProgramId), null,
-                                null);
-                        if (rowsDeleted < 1) {
-                            Log.e(TAG, "Delete program failed");
-                        }
-                        SampleContentDb.getInstance(context).deleteClipProgress(clipId);
-                    }
-                }
-            }
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
+    public static void deleteWatchNextContinue(TvProviderGateway gateway, String clipId) {
+        // Delete by COLUMN_INTERNAL_PROVIDER_ID directly rather than looking up the row first.
+        int rowsDeleted = gateway.delete(TvContractCompat.WatchNextPrograms.CONTENT_URI,
+                TvProviderGateway.INTERNAL_PROVIDER_ID_SELECTION, new String[]{clipId});
+        if (rowsDeleted > 0) {
+            ProviderIdMirror.getInstance(gateway.getContext()).removeByInternalId(
+                    ProviderIdMirror.KIND_WATCH_NEXT, clipId);
+            SampleContentDb.getInstance(gateway.getContext()).deleteClipProgress(clipId);
         }
     }
 
     @WorkerThread
-    static long addChannel(Context context, Playlist playlist) {
+    static long addChannel(TvProviderGateway gateway, Playlist playlist) {
+        Context context = gateway.getContext();
         String channelInputId = createInputId(context);
         Channel channel = new Channel.Builder()
                 .setDisplayName(playlist.getName())
@@ -244,136 +206,252 @@ public class SampleTvProvider {
                 .setAppLinkIntentUri(Uri.parse(SCHEME + "://" + APPS_LAUNCH_HOST
                         + "/" + START_APP_ACTION_PATH))
                 .setInternalProviderId(playlist.getPlaylistId())
+                .setVersionNumber(playlist.getVersion())
                 .build();
 
-        Uri channelUri = context.getContentResolver().insert(Channels.CONTENT_URI,
-                channel.toContentValues());
-        if (channelUri == null || channelUri.equals(Uri.EMPTY)) {
+        // Insert the channel and all of its programs in a single batch. The programs refer back
+        // to the channel row inserted by the first operation for their channel id.
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(Channels.CONTENT_URI)
+                .withValues(channel.toContentValues())
+                .build());
+        List<Clip> clips = playlist.getClips();
+        int weight = clips.size();
+        for (int i = 0; i < clips.size(); ++i, --weight) {
+            operations.add(newInsertProgramOperation(context, clips.get(i), 0, weight)
+                    .withValueBackReference(PreviewPrograms.COLUMN_CHANNEL_ID, 0)
+                    .build());
+        }
+
+        ContentProviderResult[] results = gateway.applyBatch(operations);
+        if (results == null || results.length == 0 || results[0].uri == null
+                || results[0].uri.equals(Uri.EMPTY)) {
             Log.e(TAG, "Insert channel failed");
             return 0;
         }
-        long channelId = ContentUris.parseId(channelUri);
+        long channelId = ContentUris.parseId(results[0].uri);
         playlist.setChannelPublishedId(channelId);
+        PublishedChannelsCache.postInvalidateChannel(channelId);
+        ProviderIdMirror mirror = ProviderIdMirror.getInstance(context);
+        mirror.put(ProviderIdMirror.KIND_CHANNEL, channelId, playlist.getPlaylistId(), 0,
+                Integer.toString(playlist.getVersion()));
+        Map<String, Long> programIds = new HashMap<>();
+        putProgramIds(mirror, clips, channelId, results, 1, programIds);
+        for (Clip clip : clips) {
+            Long programId = programIds.get(clip.getClipId());
+            if (programId != null) {
+                clip.setProgramId(programId);
+            }
+        }
 
         writeChannelLogo(context, channelId, R.drawable.app_icon);
+        return channelId;
+    }
 
-        List<Clip> clips = playlist.getClips();
+    /**
+     * Applies every program change of the channel "channelId" in a single batch: deletes the
+     * programs in "programIdsToDelete", rewrites the programs of "programsToUpdate", by program
+     * id, and publishes "clipsToPublish" with weights counting down from "weight". The program ids
+     * of the published clips are put in "programIds" by clip id rather than set on the clips, so
+     * that channels can be synchronized on several threads.
+     * Programs are rewritten without reading them first, since only the columns derived from their
+     * clip are written.
+     * Returns false if the batch or any of its operations failed.
+     */
+    @WorkerThread
+    static boolean synchronizePrograms(TvProviderGateway gateway, long channelId,
+            Collection<Long> programIdsToDelete, Map<Long, Clip> programsToUpdate,
+            List<Clip> clipsToPublish, int weight, Map<String, Long> programIds) {
+        Context context = gateway.getContext();
+        List<Long> deleteProgramIds = new ArrayList<>(programIdsToDelete);
+        List<Map.Entry<Long, Clip>> updatePrograms = new ArrayList<>(programsToUpdate.entrySet());
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(
+                deleteProgramIds.size() + updatePrograms.size() + clipsToPublish.size());
+        for (Long programId : deleteProgramIds) {
+            operations.add(ContentProviderOperation.newDelete(
+                    TvContractCompat.buildPreviewProgramUri(programId)).build());
+        }
+        for (Map.Entry<Long, Clip> program : updatePrograms) {
+            operations.add(ContentProviderOperation.newUpdate(
+                    TvContractCompat.buildPreviewProgramUri(program.getKey()))
+                    .withValues(newProgramMetadataBuilder(context, program.getValue()).build()
+                            .toContentValues())
+                    .build());
+        }
+        for (Clip clip : clipsToPublish) {
+            operations.add(newInsertProgramOperation(context, clip, channelId, weight--).build());
+        }
+        if (operations.isEmpty()) {
+            return true;
+        }
 
-        int weight = clips.size();
-        for (int i = 0; i < clips.size(); ++i, --weight) {
-            Clip clip = clips.get(i);
-            final String clipId = clip.getClipId();
-            final String contentId = clip.getContentId();
-
-            Uri previewProgramVideoUri;
-            if (clip.isVideoProtected()) {
-                // Create URI for TIF Input Service to be triggered
-                // content://android.media.tv/preview_program/<clipId>
-                ComponentName componentName = new ComponentName(context,
-                        PreviewVideoInputService.class);
-                previewProgramVideoUri = PreviewPrograms.CONTENT_URI.buildUpon()
-                        .appendEncodedPath(clipId)
-                        .appendQueryParameter("input", TvContractCompat.buildInputId(componentName))
-                        .build();
+        ContentProviderResult[] results = gateway.applyBatch(operations);
+        if (results == null) {
+            return false;
+        }
+        PublishedChannelsCache.postInvalidateChannel(channelId);
+        ProviderIdMirror mirror = ProviderIdMirror.getInstance(context);
+        boolean success = true;
+        int index = 0;
+        for (Long programId : deleteProgramIds) {
+            Integer count = results[index++].count;
+            if (count == null || count < 1) {
+                Log.e(TAG, "Delete program failed");
+                success = false;
             } else {
-                // Not a protected video, use public https:// URL.
-                previewProgramVideoUri = Uri.parse(clip.getPreviewVideoUrl());
+                mirror.remove(ProviderIdMirror.KIND_PROGRAM, programId);
             }
-
-            PreviewProgram program = new PreviewProgram.Builder()
-                    .setChannelId(channelId)
-                    .setTitle(clip.getTitle())
-                    .setDescription(clip.getDescription())
-                    .setPosterArtUri(Uri.parse(clip.getCardImageUrl()))
-                    .setIntentUri(Uri.parse(SCHEME + "://" + APPS_LAUNCH_HOST
-                            + "/" + PLAY_VIDEO_ACTION_PATH + "/" + clipId))
-                    .setPreviewVideoUri(previewProgramVideoUri)
-                    .setInternalProviderId(clipId)
-                    .setContentId(contentId)
-                    .setWeight(weight)
-                    .setPosterArtAspectRatio(clip.getAspectRatio())
-                    .setType(TvContractCompat.PreviewPrograms.TYPE_MOVIE)
-                    .build();
-
-            Uri programUri = context.getContentResolver().insert(PREVIEW_PROGRAMS_CONTENT_URI,
-                    program.toContentValues());
-            if (programUri == null || programUri.equals(Uri.EMPTY)) {
-                Log.e(TAG, "Insert program failed");
+        }
+        for (Map.Entry<Long, Clip> program : updatePrograms) {
+            Integer count = results[index++].count;
+            if (count == null || count < 1) {
+                Log.e(TAG, "Update program failed");
+                success = false;
             } else {
-                clip.setProgramId(ContentUris.parseId(programUri));
+                mirror.updateData(ProviderIdMirror.KIND_PROGRAM, program.getKey(),
+                        Long.toString(program.getValue().getFingerprint()));
             }
         }
-        return channelId;
+        return putProgramIds(mirror, clipsToPublish, channelId, results, index, programIds)
+                && success;
     }
 
-    @WorkerThread
-    static void deleteChannel(Context context, long channelId) {
-        int rowsDeleted = context.getContentResolver().delete(
-                TvContractCompat.buildChannelUri(channelId), null, null);
-        if (rowsDeleted < 1) {
-            Log.e(TAG, "Delete channel failed");
+    /**
+     * Puts the program ids returned for the inserts in "results", starting at "offset", in
+     * "programIds" by the clip id of the matching entries of "clips" and records them in
+     * "mirror". Returns false if any of the inserts failed.
+     */
+    private static boolean putProgramIds(ProviderIdMirror mirror, List<Clip> clips,
+            long channelId, ContentProviderResult[] results, int offset,
+            Map<String, Long> programIds) {
+        boolean success = true;
+        for (int i = 0; i < clips.size(); ++i) {
+            Uri programUri = results != null && offset + i < results.length
+                    ? results[offset + i].uri : null;
+            if (programUri == null || programUri.equals(Uri.EMPTY)) {
+                Log.e(TAG, "Insert program failed");
+                success = false;
+            } else {
+                Clip clip = clips.get(i);
+                long programId = ContentUris.parseId(programUri);
+                programIds.put(clip.getClipId(), programId);
+                mirror.put(ProviderIdMirror.KIND_PROGRAM, programId, clip.getClipId(),
+                        channelId, Long.toString(clip.getFingerprint()));
+            }
         }
+        return success;
     }
 
-    @WorkerThread
-    public static void deleteProgram(Context context, Clip clip) {
-        deleteProgram(context, clip.getProgramId());
+    private static ContentProviderOperation.Builder newInsertProgramOperation(Context context,
+            Clip clip, long channelId, int weight) {
+        return ContentProviderOperation.newInsert(PREVIEW_PROGRAMS_CONTENT_URI)
+                .withValues(buildProgram(context, clip, channelId, weight).toContentValues());
     }
 
-    @WorkerThread
-    static void deleteProgram(Context context, long programId) {
-        int rowsDeleted = context.getContentResolver().delete(
-                TvContractCompat.buildPreviewProgramUri(programId), null, null);
-        if (rowsDeleted < 1) {
-            Log.e(TAG, "Delete program failed");
-        }
+    private static PreviewProgram buildProgram(Context context, Clip clip, long channelId,
+            int weight) {
+        return newProgramMetadataBuilder(context, clip)
+                .setChannelId(channelId)
+                .setWeight(weight)
+                .build();
     }
 
-    @WorkerThread
-    static void updateProgramClip(Context context, Clip clip) {
-        long programId = clip.getProgramId();
-        Uri programUri = TvContractCompat.buildPreviewProgramUri(programId);
-        try (Cursor cursor = context.getContentResolver().query(programUri, null, null, null,
-                null)) {
-            if (!cursor.moveToFirst()) {
-                Log.e(TAG, "Update program failed");
-            }
-            PreviewProgram porgram = PreviewProgram.fromCursor(cursor);
-            PreviewProgram.Builder builder = new PreviewProgram.Builder(porgram)
-                    .setTitle(clip.getTitle());
+    /**
+     * Returns a builder with every column of a program that is derived from "clip", together
+     * with the clip's fingerprint in COLUMN_INTERNAL_PROVIDER_DATA.
+     */
+    private static PreviewProgram.Builder newProgramMetadataBuilder(Context context, Clip clip) {
+        final String clipId = clip.getClipId();
+        final String contentId = clip.getContentId();
 
-            int rowsUpdated = context.getContentResolver().update(programUri,
-                    builder.build().toContentValues(), null, null);
-            if (rowsUpdated < 1) {
-                Log.e(TAG, "Update program failed");
-            }
+        Uri previewProgramVideoUri;
+        if (clip.isVideoProtected()) {
+            // Create URI for TIF Input Service to be triggered
+            // content://android.media.tv/preview_program/<clipId>
+            ComponentName componentName = new ComponentName(context,
+                    PreviewVideoInputService.class);
+            previewProgramVideoUri = PreviewPrograms.CONTENT_URI.buildUpon()
+                    .appendEncodedPath(clipId)
+                    .appendQueryParameter("input", TvContractCompat.buildInputId(componentName))
+                    .build();
+        } else {
+            // Not a protected video, use public https:// URL.
+            previewProgramVideoUri = Uri.parse(clip.getPreviewVideoUrl());
         }
-    }
-
-    static void publishProgram(Context context, Clip clip, long channelId, int weight) {
-        final String clipId = clip.getClipId();
 
-        PreviewProgram program = new PreviewProgram.Builder()
-                .setChannelId(channelId)
+        return new PreviewProgram.Builder()
                 .setTitle(clip.getTitle())
                 .setDescription(clip.getDescription())
-                .setPosterArtUri(Uri.parse(clip.getCardImageUrl()))
+                .setPosterArtUri(PosterArtProvider.buildPosterArtUri(clipId,
+                        clip.getCardImageUrl()))
                 .setIntentUri(Uri.parse(SCHEME + "://" + APPS_LAUNCH_HOST
                         + "/" + PLAY_VIDEO_ACTION_PATH + "/" + clipId))
-                .setPreviewVideoUri(Uri.parse(clip.getPreviewVideoUrl()))
+                .setPreviewVideoUri(previewProgramVideoUri)
                 .setInternalProviderId(clipId)
-                .setWeight(weight)
+                .setContentId(contentId)
                 .setPosterArtAspectRatio(clip.getAspectRatio())
                 .setType(TvContractCompat.PreviewPrograms.TYPE_MOVIE)
-                .build();
+                .setInternalProviderDataByteArray(encodeFingerprint(clip.getFingerprint()));
+    }
+
+    static byte[] encodeFingerprint(long fingerprint) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(fingerprint).array();
+    }
+
+    /**
+     * Returns the fingerprint stored by "encodeFingerprint", or null if there is none.
+     */
+    static String decodeFingerprint(byte[] data) {
+        if (data == null || data.length != Long.BYTES) {
+            return null;
+        }
+        return Long.toString(ByteBuffer.wrap(data).getLong());
+    }
 
-        Uri programUri = context.getContentResolver().insert(PREVIEW_PROGRAMS_CONTENT_URI,
-                program.toContentValues());
-        if (programUri == null || programUri.equals(Uri.EMPTY)) {
-            Log.e(TAG, "Insert program failed");
+    @WorkerThread
+    static void deleteChannel(TvProviderGateway gateway, long channelId) {
+        int rowsDeleted = gateway.delete(TvContractCompat.buildChannelUri(channelId), null, null);
+        if (rowsDeleted < 1) {
+            Log.e(TAG, "Delete channel failed");
+            return;
+        }
+        ProviderIdMirror.getInstance(gateway.getContext()).remove(ProviderIdMirror.KIND_CHANNEL,
+                channelId);
+    }
+
+    /**
+     * Records that the programs of "channelId" are synchronized with version "version" of its
+     * playlist.
+     */
+    @WorkerThread
+    static void setChannelVersion(TvProviderGateway gateway, long channelId, int version) {
+        ContentValues values = new ContentValues();
+        values.put(Channels.COLUMN_VERSION_NUMBER, version);
+        int rowsUpdated = gateway.update(TvContractCompat.buildChannelUri(channelId), values, null,
+                null);
+        if (rowsUpdated < 1) {
+            Log.e(TAG, "Update channel failed");
+            return;
+        }
+        ProviderIdMirror.getInstance(gateway.getContext()).updateData(
+                ProviderIdMirror.KIND_CHANNEL, channelId, Integer.toString(version));
+    }
+
+    @WorkerThread
+    public static void deleteProgram(TvProviderGateway gateway, Clip clip) {
+        deleteProgram(gateway, clip.getProgramId());
+    }
+
+    @WorkerThread
+    static void deleteProgram(TvProviderGateway gateway, long programId) {
+        int rowsDeleted = gateway.delete(TvContractCompat.buildPreviewProgramUri(programId), null,
+                null);
+        if (rowsDeleted < 1) {
+            Log.e(TAG, "Delete program failed");
             return;
         }
-        clip.setProgramId(ContentUris.parseId(programUri));
+        ProviderIdMirror.getInstance(gateway.getContext()).remove(ProviderIdMirror.KIND_PROGRAM,
+                programId);
     }
 
     static String decodeVideoId(Uri uri) {
@@ -384,23 +462,30 @@ public class SampleTvProvider {
         return new String();
     }
 
+    /**
+     * Writes the view count of each program in "viewCounts", keyed by program id, in a single
+     * batch. Only the interaction columns are written, so the programs are not read first.
+     */
     @WorkerThread
-    static void setProgramViewCount(Context context, long programId, int numberOfViews) {
-        Uri programUri = TvContractCompat.buildPreviewProgramUri(programId);
-        try (Cursor cursor = context.getContentResolver().query(programUri, null, null, null,
-                null)) {
-            if (!cursor.moveToFirst()) {
-                return;
-            }
-            PreviewProgram existingProgram = PreviewProgram.fromCursor(cursor);
-            PreviewProgram.Builder builder = new PreviewProgram.Builder(existingProgram)
-                    .setInteractionCount(numberOfViews)
-                    .setInteractionType(TvContractCompat.PreviewProgramColumns
-                            .INTERACTION_TYPE_VIEWS);
-            int rowsUpdated = context.getContentResolver().update(
-                    TvContractCompat.buildPreviewProgramUri(programId),
-                    builder.build().toContentValues(), null, null);
-            if (rowsUpdated != 1) {
+    static void setProgramViewCounts(TvProviderGateway gateway, Map<Long, Integer> viewCounts) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(viewCounts.size());
+        for (Map.Entry<Long, Integer> entry : viewCounts.entrySet()) {
+            operations.add(ContentProviderOperation.newUpdate(
+                    TvContractCompat.buildPreviewProgramUri(entry.getKey()))
+                    .withValue(PreviewPrograms.COLUMN_INTERACTION_COUNT, entry.getValue())
+                    .withValue(PreviewPrograms.COLUMN_INTERACTION_TYPE,
+                            TvContractCompat.PreviewProgramColumns.INTERACTION_TYPE_VIEWS)
+                    .build());
+        }
+        if (operations.isEmpty()) {
+            return;
+        }
+        ContentProviderResult[] results = gateway.applyBatch(operations);
+        if (results == null) {
+            return;
+        }
+        for (ContentProviderResult result : results) {
+            if (result.count == null || result.count != 1) {
                 Log.e(TAG, "Update program failed");
             }
         }
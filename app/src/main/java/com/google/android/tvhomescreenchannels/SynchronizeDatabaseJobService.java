@@ -20,19 +20,25 @@ import android.app.job.JobScheduler;
 import android.app.job.JobService;
 import android.content.ComponentName;
 import android.content.Context;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.AsyncTask;
-import android.support.media.tv.TvContractCompat;
+import android.os.PersistableBundle;
 import android.text.TextUtils;
+import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * JobScheduler task to synchronize the TV provider database with the desired list of channels and
@@ -45,12 +51,26 @@ import java.util.Set;
  */
 
 public class SynchronizeDatabaseJobService extends JobService {
+    private static final String TAG = "SynchronizeDatabaseJob";
+    private static final String PARALLELISM_KEY = "parallelism";
+    // The number of channels synchronized at the same time, 1 to synchronize them one by one.
+    private static final int DEFAULT_PARALLELISM = 4;
     private SynchronizeDatabaseTask mSynchronizeDatabaseTask;
 
     static void schedule(Context context) {
+        schedule(context, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param parallelism the maximum number of channels to synchronize at the same time.
+     */
+    static void schedule(Context context, int parallelism) {
         JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+        PersistableBundle extras = new PersistableBundle();
+        extras.putInt(PARALLELISM_KEY, parallelism);
         scheduler.schedule(new JobInfo.Builder(0,
                 new ComponentName(context, SynchronizeDatabaseJobService.class))
+                .setExtras(extras)
                 .build());
     }
 
@@ -73,12 +93,12 @@ public class SynchronizeDatabaseJobService extends JobService {
     private static final class ProgramClip {
         String clipId;
         long programId;
-        String programTitle;
+        String programFingerprint;
 
-        ProgramClip(String clipId, long programId, String programTitle) {
+        ProgramClip(String clipId, long programId, String programFingerprint) {
             this.clipId = clipId;
             this.programId = programId;
-            this.programTitle = programTitle;
+            this.programFingerprint = programFingerprint;
         }
 
         public boolean equals(Object obj) {
@@ -87,14 +107,14 @@ public class SynchronizeDatabaseJobService extends JobService {
             } else {
                 ProgramClip other = (ProgramClip) obj;
                 return TextUtils.equals(clipId, other.clipId) && programId == other.programId &&
-                        TextUtils.equals(programTitle, other.programTitle);
+                        TextUtils.equals(programFingerprint, other.programFingerprint);
             }
         }
 
         public int hashCode() {
             return 101 + (clipId != null ? clipId.hashCode() : 0)
                     + (int) (programId ^ (programId >>> 32))
-                    + (programTitle != null ? programTitle.hashCode() : 0);
+                    + (programFingerprint != null ? programFingerprint.hashCode() : 0);
         }
     }
 
@@ -102,14 +122,17 @@ public class SynchronizeDatabaseJobService extends JobService {
         final ArrayList<ProgramClip> mProgramClipId = new ArrayList<>();
         String mPlaylistId;
         long mChannelId;
+        // The playlist version the channel's programs were last synchronized with, or null.
+        String mVersion;
 
-        ChannelPlaylistId(String playlistId, long channelId) {
+        ChannelPlaylistId(String playlistId, long channelId, String version) {
             mPlaylistId = playlistId;
             mChannelId = channelId;
+            mVersion = version;
         }
 
-        void addProgram(String id, long programId, String programTitle) {
-            mProgramClipId.add(new ProgramClip(id, programId, programTitle));
+        void addProgram(String id, long programId, String programFingerprint) {
+            mProgramClipId.add(new ProgramClip(id, programId, programFingerprint));
         }
     }
 
@@ -119,18 +142,32 @@ public class SynchronizeDatabaseJobService extends JobService {
     private class SynchronizeDatabaseTask extends AsyncTask<Void, Void, Void> {
         private final HashMap<Long, ChannelPlaylistId> mChannelPlaylistIds = new HashMap<>();
         private Context mContext;
+        private TvProviderGateway mGateway;
         private JobParameters mJobParameters;
         private List<Playlist> mDesiredPlaylists;
+        private final int mParallelism;
 
         SynchronizeDatabaseTask(Context context, JobParameters jobParameters) {
             mContext = context;
             mJobParameters = jobParameters;
+            mParallelism = jobParameters.getExtras().getInt(PARALLELISM_KEY, DEFAULT_PARALLELISM);
             // Get a list of the channels/programs the app wants published.
             mDesiredPlaylists = SampleClipApi.getDesiredPublishedChannelSet();
         }
 
         @Override
         protected Void doInBackground(Void... params) {
+            // Use a single connection to the TV provider for the whole synchronization.
+            try (TvProviderGateway gateway = TvProviderGateway.acquire(mContext)) {
+                mGateway = gateway;
+                synchronize();
+            } finally {
+                mGateway = null;
+            }
+            return null;
+        }
+
+        private void synchronize() {
             // Load all channels owned by TvLauncherSample from the database.
             loadChannels();
             SampleContentDb sampleContentDb = SampleContentDb.getInstance(mContext);
@@ -163,17 +200,28 @@ public class SynchronizeDatabaseJobService extends JobService {
             // Unpublish the channels in "wantChannelsUnpublished" and remove them from
             // "mChannelPlaylistIds".
             for (Long channelIdToUnpublish : wantChannelsUnpublished) {
-                SampleTvProvider.deleteChannel(mContext, channelIdToUnpublish);
+                SampleTvProvider.deleteChannel(mGateway, channelIdToUnpublish);
                 mChannelPlaylistIds.remove(channelIdToUnpublish);
             }
 
             Set<Map.Entry<Long, ChannelPlaylistId>> channelPlayListIdsSet =
                     mChannelPlaylistIds.entrySet();
 
-            // Load published programs from still-published channels.
+            // Only the channels published with a different version of their playlist need their
+            // programs synchronized with it. Skip comparing the clips of all the others, which
+            // only need the clips the user removed from the app unpublished.
+            final List<ChannelPlaylistId> wantChannelsSynchronized = new ArrayList<>();
+            final List<ChannelPlaylistId> upToDateChannels = new ArrayList<>();
             for (Map.Entry<Long, ChannelPlaylistId> entry : channelPlayListIdsSet) {
                 ChannelPlaylistId channelPlaylistId = entry.getValue();
-                loadProgramsForChannel(channelPlaylistId);
+                Playlist serverPlaylist =
+                        SampleClipApi.getPlaylistById(channelPlaylistId.mPlaylistId);
+                if (!TextUtils.equals(channelPlaylistId.mVersion,
+                        Integer.toString(serverPlaylist.getVersion()))) {
+                    wantChannelsSynchronized.add(channelPlaylistId);
+                } else {
+                    upToDateChannels.add(channelPlaylistId);
+                }
             }
 
             // Publish the playlists in "wantPlaylistsPublished" that are not already published.
@@ -184,115 +232,191 @@ public class SynchronizeDatabaseJobService extends JobService {
             }
             for (Playlist playlist : wantPlaylistsPublished) {
                 if (!publishedPlaylists.contains(playlist.getPlaylistId())) {
-                    SampleTvProvider.addChannel(mContext, playlist);
+                    SampleTvProvider.addChannel(mGateway, playlist);
                 }
             }
 
-            // Synchronize the clips remaining in "mChannelPlaylistIds" by adding clips not present,
-            // deleting clips that aren't in "SampleClipApi" database and updating any that differ.
-            for (Map.Entry<Long, ChannelPlaylistId> entry : channelPlayListIdsSet) {
-                ChannelPlaylistId channelPlaylistId = entry.getValue();
-                Playlist serverPlaylist =
-                        SampleClipApi.getPlaylistById(channelPlaylistId.mPlaylistId);
-                final HashMap<Long, Clip> wantClipsPublished = new HashMap<>();
-                for (Clip serverClip : serverPlaylist.getClips()) {
-                    if (!sampleContentDb.isClipRemoved(serverClip.getClipId())) {
-                        wantClipsPublished.put(serverClip.getProgramId(), serverClip);
+            // Synchronize the out of date channels remaining in "mChannelPlaylistIds" with their
+            // playlists and unpublish the removed clips of the others, checking the mirror of the
+            // published programs against the TV provider first.
+            if (channelPlayListIdsSet.isEmpty()) {
+                return;
+            }
+            ProviderIdMirror.getInstance(mContext).verify(mGateway, ProviderIdMirror.KIND_PROGRAM);
+            if (!wantChannelsSynchronized.isEmpty()) {
+                synchronizeChannels(wantChannelsSynchronized, sampleContentDb);
+            }
+            unpublishRemovedClips(upToDateChannels, sampleContentDb);
+        }
+
+        /**
+         * Unpublishes the programs of "channels" whose clips the user removed from the app. These
+         * channels are up to date with their playlists, so the programs are found from the mirror
+         * and "sampleContentDb" without comparing the clips.
+         */
+        private void unpublishRemovedClips(List<ChannelPlaylistId> channels,
+                SampleContentDb sampleContentDb) {
+            ProviderIdMirror mirror = ProviderIdMirror.getInstance(mContext);
+            for (ChannelPlaylistId channelPlaylistId : channels) {
+                if (isCancelled()) {
+                    return;
+                }
+                List<Long> wantProgramsUnpublished = new ArrayList<>();
+                for (ProviderIdMirror.Row program :
+                        mirror.getPrograms(channelPlaylistId.mChannelId)) {
+                    if (program.mInternalId != null
+                            && sampleContentDb.isClipRemoved(program.mInternalId)) {
+                        wantProgramsUnpublished.add(program.mRowId);
                     }
                 }
-                final HashSet<Long> wantProgramsUnpublished = new HashSet<>();
-                for (ProgramClip publishedClip : channelPlaylistId.mProgramClipId) {
-                    wantClipsPublished.remove(publishedClip.programId);
-                    wantProgramsUnpublished.add(publishedClip.programId);
+                if (!wantProgramsUnpublished.isEmpty() && !SampleTvProvider.synchronizePrograms(
+                        mGateway, channelPlaylistId.mChannelId, wantProgramsUnpublished,
+                        Collections.<Long, Clip>emptyMap(), Collections.<Clip>emptyList(), 0,
+                        new HashMap<String, Long>())) {
+                    Log.e(TAG, "Could not unpublish the removed clips of channel "
+                            + channelPlaylistId.mChannelId);
                 }
-                for (Clip serverClip : serverPlaylist.getClips()) {
-                    if (!sampleContentDb.isClipRemoved(serverClip.getClipId())) {
-                        wantProgramsUnpublished.remove(serverClip.getProgramId());
+            }
+        }
+
+        /**
+         * Synchronizes "channels" on up to "mParallelism" threads. The channels are independent of
+         * each other, so this keeps several batches in flight to the TV provider at once. Each
+         * thread talks to the TV provider through its own "TvProviderGateway", since a
+         * ContentProviderClient is not safe to share between threads, and the program ids found
+         * by the threads are only set on the shared clips of the catalog once they are done.
+         */
+        private void synchronizeChannels(List<ChannelPlaylistId> channels,
+                final SampleContentDb sampleContentDb) {
+            int parallelism = Math.min(mParallelism, channels.size());
+            if (parallelism <= 1) {
+                for (ChannelPlaylistId channelPlaylistId : channels) {
+                    if (isCancelled()) {
+                        return;
                     }
+                    setProgramIds(synchronizeChannel(mGateway, channelPlaylistId,
+                            sampleContentDb));
                 }
-                final List<Clip> wantClipsProgramsUpdate = new ArrayList<>();
-                for (ProgramClip publishedClip : channelPlaylistId.mProgramClipId) {
-                    if (!wantProgramsUnpublished.contains(publishedClip.programId)) {
-                        Clip clip = SampleClipApi.getClipByIdBlocking(publishedClip.clipId);
-                        if (!TextUtils.equals(publishedClip.programTitle, clip.getTitle())) {
-                            wantClipsProgramsUpdate.add(clip);
+                return;
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+            Map<String, Long> programIds = new HashMap<>();
+            try {
+                List<Future<Map<String, Long>>> futures = new ArrayList<>(channels.size());
+                for (final ChannelPlaylistId channelPlaylistId : channels) {
+                    futures.add(executor.submit(new Callable<Map<String, Long>>() {
+                        @Override
+                        public Map<String, Long> call() {
+                            try (TvProviderGateway gateway = TvProviderGateway.acquire(mContext)) {
+                                return synchronizeChannel(gateway, channelPlaylistId,
+                                        sampleContentDb);
+                            }
                         }
+                    }));
+                }
+                for (Future<Map<String, Long>> future : futures) {
+                    try {
+                        programIds.putAll(future.get());
+                    } catch (ExecutionException e) {
+                        Log.e(TAG, "Could not synchronize channel", e.getCause());
                     }
                 }
-                unpublishPrograms(wantProgramsUnpublished);
-                updateProgramsClips(wantClipsProgramsUpdate);
-                publishClips(wantClipsPublished, channelPlaylistId.mChannelId,
-                        channelPlaylistId.mProgramClipId.size());
+            } catch (InterruptedException e) {
+                // The job was stopped. The remaining channels keep their old version and are
+                // synchronized by the next run.
+                Thread.currentThread().interrupt();
+            } finally {
+                executor.shutdownNow();
             }
-            return null;
-        }
-
-        @Override
-        protected void onPostExecute(Void result) {
-            mSynchronizeDatabaseTask = null;
-            jobFinished(mJobParameters, false);
+            setProgramIds(programIds);
         }
 
-        private void loadChannels() {
-            // Iterate "cursor" through all the channels owned by this app.
-            try (Cursor cursor = mContext.getContentResolver().query(TvContractCompat
-                            .Channels.CONTENT_URI, SampleTvProvider.CHANNELS_MAP_PROJECTION,
-                    null, null,
-                    null)) {
-                if (cursor != null) {
-                    while (cursor.moveToNext()) {
-                        String playlistId = cursor.getString(SampleTvProvider
-                                .CHANNELS_COLUMN_INTERNAL_PROVIDER_ID_INDEX);
-                        long channelId = cursor.getLong(SampleTvProvider.CHANNELS_COLUMN_ID_INDEX);
-                        mChannelPlaylistIds.put(channelId,
-                                new ChannelPlaylistId(playlistId, channelId));
-                    }
-                    cursor.close();
+        /**
+         * Sets the program ids in "programIds" on the clips of the catalog, by clip id.
+         */
+        private void setProgramIds(Map<String, Long> programIds) {
+            for (Map.Entry<String, Long> entry : programIds.entrySet()) {
+                Clip clip = SampleClipApi.getClipByIdBlocking(entry.getKey());
+                if (clip != null) {
+                    clip.setProgramId(entry.getValue());
                 }
             }
         }
 
-        private void loadProgramsForChannel(ChannelPlaylistId channel) {
-            // Iterate "cursor" through all the programs assigned to "channelId".
-            Uri programUri = TvContractCompat.buildPreviewProgramsUriForChannel(channel.mChannelId);
-            try (Cursor cursor = mContext.getContentResolver().query(programUri,
-                    SampleTvProvider.PROGRAMS_MAP_PROJECTION, null, null, null)) {
-                if (cursor != null) {
-                    while (cursor.moveToNext()) {
-                        if (!cursor.isNull(SampleTvProvider
-                                .PROGRAMS_COLUMN_INTERNAL_PROVIDER_ID_INDEX)) {
-                            // Found a row that contains a non-null COLUMN_INTERNAL_PROVIDER_ID.
-                            String id = cursor.getString(SampleTvProvider
-                                    .PROGRAMS_COLUMN_INTERNAL_PROVIDER_ID_INDEX);
-                            long programId = cursor.getLong(SampleTvProvider
-                                    .PROGRAMS_COLUMN_ID_INDEX);
-                            String title = cursor.getString(SampleTvProvider
-                                    .PROGRAMS_COLUMN_TITLE_INDEX);
-                            channel.addProgram(id, programId, title);
-                        }
-                    }
-                    cursor.close();
+        /**
+         * Synchronizes the programs of one published channel with its playlist by adding clips not
+         * present, deleting clips that aren't in "SampleClipApi" database and updating any that
+         * differ. All of these changes are applied in a single batch through "gateway".
+         * Returns the program ids of the channel's clips by clip id. The clips are shared with
+         * the other channels' threads, so they are left unchanged.
+         */
+        private Map<String, Long> synchronizeChannel(TvProviderGateway gateway,
+                ChannelPlaylistId channelPlaylistId, SampleContentDb sampleContentDb) {
+            loadProgramsForChannel(channelPlaylistId);
+            Playlist serverPlaylist = SampleClipApi.getPlaylistById(channelPlaylistId.mPlaylistId);
+            // Match published programs to clips by clip id, which is the program's
+            // COLUMN_INTERNAL_PROVIDER_ID.
+            final LinkedHashMap<String, Clip> wantClipsPublished = new LinkedHashMap<>();
+            for (Clip serverClip : serverPlaylist.getClips()) {
+                if (!sampleContentDb.isClipRemoved(serverClip.getClipId())) {
+                    wantClipsPublished.put(serverClip.getClipId(), serverClip);
                 }
             }
+            final HashSet<Long> wantProgramsUnpublished = new HashSet<>();
+            final LinkedHashMap<Long, Clip> wantProgramsUpdate = new LinkedHashMap<>();
+            final HashMap<String, Long> programIds = new HashMap<>();
+            for (ProgramClip publishedClip : channelPlaylistId.mProgramClipId) {
+                Clip clip = wantClipsPublished.remove(publishedClip.clipId);
+                if (clip == null) {
+                    wantProgramsUnpublished.add(publishedClip.programId);
+                    continue;
+                }
+                programIds.put(publishedClip.clipId, publishedClip.programId);
+                // The fingerprint covers every published field of the clip, so any change to its
+                // metadata is detected without reading the program.
+                if (!TextUtils.equals(publishedClip.programFingerprint,
+                        Long.toString(clip.getFingerprint()))) {
+                    wantProgramsUpdate.put(publishedClip.programId, clip);
+                }
+            }
+            int weight = channelPlaylistId.mProgramClipId.size() + wantClipsPublished.size();
+            if (!SampleTvProvider.synchronizePrograms(gateway, channelPlaylistId.mChannelId,
+                    wantProgramsUnpublished, wantProgramsUpdate,
+                    new ArrayList<>(wantClipsPublished.values()), weight, programIds)) {
+                // Keep the old version, so the next run synchronizes the channel again.
+                Log.e(TAG, "Could not synchronize channel " + channelPlaylistId.mChannelId);
+                return programIds;
+            }
+            SampleTvProvider.setChannelVersion(gateway, channelPlaylistId.mChannelId,
+                    serverPlaylist.getVersion());
+            return programIds;
         }
 
-        private void updateProgramsClips(List<Clip> wantClipsProgramsUpdate) {
-            for (Clip clip : wantClipsProgramsUpdate) {
-                SampleTvProvider.updateProgramClip(mContext, clip);
-            }
+        @Override
+        protected void onPostExecute(Void result) {
+            mSynchronizeDatabaseTask = null;
+            jobFinished(mJobParameters, false);
         }
 
-        private void unpublishPrograms(HashSet<Long> wantProgramsUnpublished) {
-            for (Long programId : wantProgramsUnpublished) {
-                SampleTvProvider.deleteProgram(mContext, programId);
+        private void loadChannels() {
+            // Read the channels owned by this app from the local mirror, which is checked
+            // against the TV provider first and only rescanned from it when they disagree.
+            ProviderIdMirror mirror = ProviderIdMirror.getInstance(mContext);
+            mirror.verify(mGateway, ProviderIdMirror.KIND_CHANNEL);
+            for (ProviderIdMirror.Row channel : mirror.getRows(ProviderIdMirror.KIND_CHANNEL)) {
+                mChannelPlaylistIds.put(channel.mRowId,
+                        new ChannelPlaylistId(channel.mInternalId, channel.mRowId, channel.mData));
             }
         }
 
-        private void publishClips(HashMap<Long, Clip> wantClipsPublished, long channelId,
-                int clipsPublishedAlready) {
-            int weight = clipsPublishedAlready + wantClipsPublished.size();
-            for (Clip clip : wantClipsPublished.values()) {
-                SampleTvProvider.publishProgram(mContext, clip, channelId, weight--);
+        private void loadProgramsForChannel(ChannelPlaylistId channel) {
+            // The program table of the mirror is verified before this is called, so the programs
+            // assigned to "channelId" can be read from it without querying the TV provider.
+            for (ProviderIdMirror.Row program :
+                    ProviderIdMirror.getInstance(mContext).getPrograms(channel.mChannelId)) {
+                if (program.mInternalId != null) {
+                    channel.addProgram(program.mInternalId, program.mRowId, program.mData);
+                }
             }
         }
     }
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.tvhomescreenchannels;
+
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.provider.BaseColumns;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.support.media.tv.TvContractCompat;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Holds a single ContentProviderClient for the TV provider so that a whole job or session talks to
+ * the provider through one connection rather than resolving it again for every call. Acquire one
+ * with "acquire()" and close it once the job or session is done.
+ * Lookups should narrow their rows with the selections below rather than scanning whole tables.
+ */
+public class TvProviderGateway implements AutoCloseable {
+    private static final String TAG = "TvProviderGateway";
+
+    /**
+     * Selection matching the rows with a given COLUMN_INTERNAL_PROVIDER_ID. The channels, preview
+     * programs and watch next programs tables all share this column name.
+     */
+    static final String INTERNAL_PROVIDER_ID_SELECTION =
+            TvContractCompat.Channels.COLUMN_INTERNAL_PROVIDER_ID + " = ?";
+    static final String BROWSABLE_SELECTION =
+            TvContractCompat.Channels.COLUMN_BROWSABLE + " = 1";
+    static final String NOT_BROWSABLE_SELECTION =
+            TvContractCompat.Channels.COLUMN_BROWSABLE + " = 0";
+
+    private static final String[] COUNT_PROJECTION = {"count(*)"};
+    private static final String[] ID_PROJECTION = {BaseColumns._ID};
+    private static final String MAX_ID_SORT_ORDER = BaseColumns._ID + " DESC LIMIT 1";
+
+    private final Context mContext;
+    private final ContentProviderClient mClient;
+
+    private TvProviderGateway(Context context, ContentProviderClient client) {
+        mContext = context;
+        mClient = client;
+    }
+
+    public static TvProviderGateway acquire(Context context) {
+        Context appContext = context.getApplicationContext();
+        ContentProviderClient client = appContext.getContentResolver()
+                .acquireContentProviderClient(TvContractCompat.AUTHORITY);
+        if (client == null) {
+            Log.e(TAG, "Could not acquire the TV provider");
+        }
+        return new TvProviderGateway(appContext, client);
+    }
+
+    static String and(String selection, String otherSelection) {
+        return "(" + selection + ") AND (" + otherSelection + ")";
+    }
+
+    Context getContext() {
+        return mContext;
+    }
+
+    @WorkerThread
+    @Nullable
+    Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs) {
+        return query(uri, projection, selection, selectionArgs, null);
+    }
+
+    @WorkerThread
+    @Nullable
+    Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder) {
+        if (mClient == null) {
+            return null;
+        }
+        try {
+            return mClient.query(uri, projection, selection, selectionArgs, sortOrder);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Query failed " + uri, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of rows of "uri", or -1 if the provider can't count them. Only the count
+     * crosses the binder, rather than a row for every row counted.
+     */
+    @WorkerThread
+    int queryCount(Uri uri) {
+        try (Cursor cursor = query(uri, COUNT_PROJECTION, null, null)) {
+            return cursor != null && cursor.moveToFirst() ? cursor.getInt(0) : -1;
+        } catch (IllegalArgumentException | SQLiteException e) {
+            Log.w(TAG, "Count not supported by " + uri + " " + e);
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the largest row id of "uri", 0 if it has no rows, or -1 if the provider can't
+     * limit the query to that one row.
+     */
+    @WorkerThread
+    long queryMaxId(Uri uri) {
+        try (Cursor cursor = query(uri, ID_PROJECTION, null, null, MAX_ID_SORT_ORDER)) {
+            if (cursor == null || cursor.getCount() > 1) {
+                return -1;
+            }
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } catch (IllegalArgumentException | SQLiteException e) {
+            Log.w(TAG, "Limit not supported by " + uri + " " + e);
+            return -1;
+        }
+    }
+
+    @WorkerThread
+    @Nullable
+    Uri insert(Uri uri, ContentValues values) {
+        if (mClient == null) {
+            return null;
+        }
+        try {
+            return mClient.insert(uri, values);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Insert failed " + uri, e);
+            return null;
+        }
+    }
+
+    @WorkerThread
+    int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        if (mClient == null) {
+            return 0;
+        }
+        try {
+            return mClient.update(uri, values, selection, selectionArgs);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Update failed " + uri, e);
+            return 0;
+        }
+    }
+
+    @WorkerThread
+    int delete(Uri uri, String selection, String[] selectionArgs) {
+        if (mClient == null) {
+            return 0;
+        }
+        try {
+            return mClient.delete(uri, selection, selectionArgs);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Delete failed " + uri, e);
+            return 0;
+        }
+    }
+
+    @WorkerThread
+    @Nullable
+    ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) {
+        if (mClient == null) {
+            return null;
+        }
+        try {
+            return mClient.applyBatch(operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(TAG, "Batch operation failed", e);
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (mClient != null) {
+            mClient.close();
+        }
+    }
+}
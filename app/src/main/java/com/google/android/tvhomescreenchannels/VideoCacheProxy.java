@@ -0,0 +1,724 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.tvhomescreenchannels;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Caches the start of the videos on disk and serves them to the players through a loopback HTTP
+ * server, so that a video seen before starts without waiting on the network.
+ * The players load "getProxyUri()" rather than the video's url. The proxy answers their range
+ * requests from "BLOCK_SIZE" blocks, which are fetched from the origin with range requests and
+ * kept on disk for the first "CACHED_PREFIX_SIZE" bytes of each video. A block that isn't cached
+ * yet is relayed to the player as it arrives from the origin. The rest of a video is streamed
+ * from the origin without being cached. The cache is trimmed to "CACHE_SIZE" bytes, least
+ * recently used blocks first.
+ * Only urls handed to "getProxyUri()" are served, so that other apps can't use the proxy.
+ */
+final class VideoCacheProxy {
+    private static final String TAG = "VideoCacheProxy";
+    private static final String CACHE_DIRECTORY = "video_cache";
+    @VisibleForTesting
+    static final int BLOCK_SIZE = 512 * 1024;
+    // About the first seconds of a video at the bit rates of the sample videos.
+    @VisibleForTesting
+    static final long CACHED_PREFIX_SIZE = 8L * BLOCK_SIZE;
+    @VisibleForTesting
+    static final long CACHE_SIZE = 128L * 1024 * 1024;
+    // Connections waiting to be accepted. Every player keeps a connection open while it streams
+    // and opens new ones as it seeks, so this is well above the number of players.
+    private static final int CONNECTION_BACKLOG = 50;
+    private static final int TIMEOUT_MS = 15000;
+    private static final String DEFAULT_CONTENT_TYPE = "video/mp4";
+    private static final String TEMP_SUFFIX = ".tmp";
+    // The bytes of a block fetched from the origin are relayed to the player in chunks this size.
+    private static final int RELAY_BUFFER_SIZE = 64 * 1024;
+    private static final Comparator<File> LEAST_RECENTLY_USED_FIRST = new Comparator<File>() {
+        @Override
+        public int compare(File file, File otherFile) {
+            return Long.compare(file.lastModified(), otherFile.lastModified());
+        }
+    };
+
+    private static volatile VideoCacheProxy sVideoCacheProxy;
+
+    private final File mCacheDirectory;
+    private final long mCacheSize;
+    // The urls being served, by their cache key.
+    private final Map<String, String> mUrls = new ConcurrentHashMap<>();
+    // The number of requests reading each block, which "trimCache()" must not delete. Guarded by
+    // "this".
+    private final Map<File, Integer> mBlocksInUse = new HashMap<>();
+    // A connection holds its thread for as long as the player streams from it, so every accepted
+    // connection gets a thread rather than queueing behind long streams.
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    @Nullable
+    private final ServerSocket mServerSocket;
+
+    /**
+     * Starts a proxy caching up to "cacheSize" bytes in "cacheDirectory". The app shares the one
+     * returned by "getInstance()".
+     */
+    @VisibleForTesting
+    VideoCacheProxy(File cacheDirectory, long cacheSize) {
+        mCacheDirectory = cacheDirectory;
+        mCacheSize = cacheSize;
+        ServerSocket serverSocket = null;
+        try {
+            serverSocket = new ServerSocket(0, CONNECTION_BACKLOG,
+                    InetAddress.getLoopbackAddress());
+            startAccepting(serverSocket);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not start the proxy, videos will not be cached", e);
+        }
+        mServerSocket = serverSocket;
+    }
+
+    static VideoCacheProxy getInstance(Context context) {
+        if (sVideoCacheProxy == null) {
+            synchronized (VideoCacheProxy.class) {
+                if (sVideoCacheProxy == null) {
+                    sVideoCacheProxy = new VideoCacheProxy(new File(
+                            context.getApplicationContext().getCacheDir(), CACHE_DIRECTORY),
+                            CACHE_SIZE);
+                }
+            }
+        }
+        return sVideoCacheProxy;
+    }
+
+    /**
+     * Returns the uri a player should load "url" from, or "url" itself if the proxy isn't running.
+     */
+    Uri getProxyUri(String url) {
+        if (mServerSocket == null || url == null) {
+            return Uri.parse(url);
+        }
+        String key = getKey(url);
+        mUrls.put(key, url);
+        return new Uri.Builder()
+                .scheme("http")
+                .encodedAuthority("127.0.0.1:" + mServerSocket.getLocalPort())
+                .appendPath(key)
+                .build();
+    }
+
+    /**
+     * Stops accepting connections. Only proxies that aren't shared by the app may be closed.
+     */
+    @VisibleForTesting
+    void close() {
+        if (mServerSocket != null) {
+            try {
+                mServerSocket.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Could not close the proxy", e);
+            }
+        }
+        mExecutor.shutdownNow();
+    }
+
+    private static String getKey(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void startAccepting(final ServerSocket serverSocket) {
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        mExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        });
+                    } catch (IOException e) {
+                        Log.e(TAG, "Accept failed", e);
+                    }
+                }
+            }
+        }, TAG);
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    private void serve(Socket socket) {
+        BlockFetch fetch = null;
+        try (Socket s = socket) {
+            s.setSoTimeout(TIMEOUT_MS);
+            Request request = Request.read(s.getInputStream());
+            String url = request != null ? mUrls.get(request.mKey) : null;
+            OutputStream out = s.getOutputStream();
+            if (url == null) {
+                writeHeaders(out, "404 Not Found", null, 0, null);
+                return;
+            }
+            Metadata metadata = Metadata.read(mCacheDirectory, request.mKey);
+            if (metadata == null && request.mStart < CACHED_PREFIX_SIZE) {
+                // The response for the first block requested also gives the length of the video.
+                fetch = startFetch(url, request.mKey, (int) (request.mStart / BLOCK_SIZE));
+                if (fetch != null) {
+                    metadata = fetch.mMetadata;
+                }
+            }
+            if (metadata == null || request.mStart >= metadata.mLength) {
+                if (fetch != null) {
+                    fetch.close();
+                }
+                streamFromOrigin(url, request, out);
+                return;
+            }
+            serveFromCache(url, request, metadata, fetch, out);
+        } catch (IOException e) {
+            // The player closes its connection whenever it seeks, so this is expected.
+            Log.d(TAG, "Serving failed " + e);
+        } finally {
+            if (fetch != null) {
+                fetch.close();
+            }
+        }
+    }
+
+    /**
+     * Serves "request" from the cached blocks, fetching the blocks that aren't cached yet. "fetch"
+     * is a fetch already started for the first block of the request, or null.
+     */
+    private void serveFromCache(String url, Request request, Metadata metadata,
+            @Nullable BlockFetch fetch, OutputStream out) throws IOException {
+        long end = request.mEnd >= 0 ? Math.min(request.mEnd, metadata.mLength - 1)
+                : metadata.mLength - 1;
+        String contentRange = "bytes " + request.mStart + "-" + end + "/" + metadata.mLength;
+        writeHeaders(out, request.mIsRange ? "206 Partial Content" : "200 OK",
+                metadata.mContentType, end - request.mStart + 1,
+                request.mIsRange ? contentRange : null);
+        if (request.mIsHead) {
+            return;
+        }
+        byte[] buffer = new byte[BLOCK_SIZE];
+        long position = request.mStart;
+        while (position <= end) {
+            int index = (int) (position / BLOCK_SIZE);
+            long blockStart = (long) index * BLOCK_SIZE;
+            if (blockStart >= CACHED_PREFIX_SIZE) {
+                copyFromOrigin(url, position, end, out);
+                return;
+            }
+            File block = fetch == null ? acquireCachedBlock(request.mKey, index) : null;
+            if (block == null) {
+                if (fetch == null) {
+                    fetch = startFetch(url, request.mKey, index);
+                }
+                long wanted = Math.min(end, blockStart + BLOCK_SIZE - 1) - position + 1;
+                long relayed = fetch != null ? fetch.relay(position, end, out) : 0;
+                fetch = null;
+                position += relayed;
+                if (relayed < wanted) {
+                    copyFromOrigin(url, position, end, out);
+                    return;
+                }
+                continue;
+            }
+            int offset = (int) (position - blockStart);
+            int length = (int) Math.min(block.length() - offset, end - position + 1);
+            try {
+                if (length <= 0) {
+                    throw new IOException("Short block " + block);
+                }
+                try (InputStream in = new FileInputStream(block)) {
+                    skipFully(in, offset);
+                    readFully(in, buffer, length);
+                }
+            } finally {
+                releaseBlock(block);
+            }
+            out.write(buffer, 0, length);
+            position += length;
+        }
+        out.flush();
+    }
+
+    /**
+     * Returns the block "index" of the video if it is cached, or null. The block is not trimmed
+     * from the cache until it is given back to "releaseBlock()".
+     */
+    @Nullable
+    private synchronized File acquireCachedBlock(String key, int index) {
+        File block = new File(mCacheDirectory, key + "." + index);
+        if (!block.exists()) {
+            return null;
+        }
+        // The modification time orders the blocks for eviction.
+        block.setLastModified(System.currentTimeMillis());
+        acquireBlock(block);
+        return block;
+    }
+
+    /**
+     * Requests the block "index" of the video from the origin and records the length of the
+     * video, or returns null if the block could not be requested. The block itself is read by
+     * "BlockFetch.relay()".
+     */
+    @Nullable
+    private BlockFetch startFetch(String url, String key, int index) {
+        long start = (long) index * BLOCK_SIZE;
+        HttpURLConnection connection = null;
+        try {
+            connection = openOrigin(url, start, start + BLOCK_SIZE - 1);
+            int responseCode = connection.getResponseCode();
+            long length;
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                length = parseTotalLength(connection.getHeaderField("Content-Range"));
+            } else if (responseCode == HttpURLConnection.HTTP_OK && start == 0) {
+                length = connection.getContentLengthLong();
+            } else {
+                Log.e(TAG, "Unexpected response " + responseCode + " for " + url);
+                connection.disconnect();
+                return null;
+            }
+            if (length <= start) {
+                connection.disconnect();
+                return null;
+            }
+            if (!mCacheDirectory.isDirectory() && !mCacheDirectory.mkdirs()) {
+                throw new IOException("Could not create " + mCacheDirectory);
+            }
+            Metadata.write(mCacheDirectory, key, length, connection.getContentType());
+            Metadata metadata = Metadata.read(mCacheDirectory, key);
+            if (metadata == null) {
+                throw new IOException("Could not record the length of " + url);
+            }
+            return new BlockFetch(url, new File(mCacheDirectory, key + "." + index), start,
+                    connection, metadata);
+        } catch (IOException e) {
+            Log.e(TAG, "Fetching block " + index + " of " + url + " failed", e);
+            if (connection != null) {
+                connection.disconnect();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Relays the origin's response to "request" without caching it, for videos whose length isn't
+     * known yet and for requests past the cached start of a video.
+     */
+    private void streamFromOrigin(String url, Request request, OutputStream out)
+            throws IOException {
+        HttpURLConnection connection = openOrigin(url, request.mStart, request.mEnd);
+        try {
+            int responseCode = connection.getResponseCode();
+            String status = responseCode == HttpURLConnection.HTTP_PARTIAL
+                    ? "206 Partial Content" : responseCode + " " + connection.getResponseMessage();
+            writeHeaders(out, status, connection.getContentType(),
+                    connection.getContentLengthLong(), connection.getHeaderField("Content-Range"));
+            if (!request.mIsHead && responseCode < HttpURLConnection.HTTP_BAD_REQUEST) {
+                copy(connection.getInputStream(), out);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void copyFromOrigin(String url, long start, long end, OutputStream out)
+            throws IOException {
+        HttpURLConnection connection = openOrigin(url, start, end);
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Range not supported by " + url);
+            }
+            copy(connection.getInputStream(), out);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Opens a request for the bytes "start" to "end" of "url", or to its end if "end" is
+     * negative. The whole video is requested without a range.
+     */
+    private static HttpURLConnection openOrigin(String url, long start, long end)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        if (start > 0 || end >= 0) {
+            connection.setRequestProperty("Range",
+                    "bytes=" + start + "-" + (end >= 0 ? end : ""));
+        }
+        return connection;
+    }
+
+    private static long parseTotalLength(String contentRange) throws IOException {
+        int slash = contentRange != null ? contentRange.lastIndexOf('/') : -1;
+        if (slash < 0 || contentRange.endsWith("*")) {
+            throw new IOException("Unknown length " + contentRange);
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad content range " + contentRange, e);
+        }
+    }
+
+    private synchronized void acquireBlock(File block) {
+        Integer count = mBlocksInUse.get(block);
+        mBlocksInUse.put(block, count != null ? count + 1 : 1);
+    }
+
+    private synchronized void releaseBlock(File block) {
+        Integer count = mBlocksInUse.get(block);
+        if (count == null || count <= 1) {
+            mBlocksInUse.remove(block);
+        } else {
+            mBlocksInUse.put(block, count - 1);
+        }
+    }
+
+    /**
+     * Deletes the least recently used blocks until the cache fits in "mCacheSize". Blocks being
+     * read are skipped, and temporary files still being written are neither counted nor deleted.
+     * The metadata of a video is kept with its last block.
+     */
+    private synchronized void trimCache() {
+        File[] files = mCacheDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            if (!isTempFile(file)) {
+                size += file.length();
+            }
+        }
+        Arrays.sort(files, LEAST_RECENTLY_USED_FIRST);
+        for (int i = 0; i < files.length && size > mCacheSize; ++i) {
+            if (!Metadata.isMetadata(files[i]) && !isTempFile(files[i])
+                    && !mBlocksInUse.containsKey(files[i])) {
+                size -= files[i].length();
+                files[i].delete();
+            }
+        }
+        for (File file : files) {
+            if (Metadata.isMetadata(file) && !hasBlocks(file)) {
+                file.delete();
+            }
+        }
+    }
+
+    private static boolean isTempFile(File file) {
+        return file.getName().endsWith(TEMP_SUFFIX);
+    }
+
+    /**
+     * Whether any block of the video of "metadataFile" is cached or being written.
+     */
+    private boolean hasBlocks(File metadataFile) {
+        String prefix = Metadata.getKey(metadataFile) + ".";
+        String[] names = mCacheDirectory.list();
+        if (names == null) {
+            return false;
+        }
+        for (String name : names) {
+            if (name.startsWith(prefix) && !name.equals(metadataFile.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void writeHeaders(OutputStream out, String status, String contentType,
+            long contentLength, String contentRange) throws IOException {
+        StringBuilder headers = new StringBuilder("HTTP/1.1 ").append(status).append("\r\n");
+        if (contentType != null) {
+            headers.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        if (contentLength >= 0) {
+            headers.append("Content-Length: ").append(contentLength).append("\r\n");
+        }
+        if (contentRange != null) {
+            headers.append("Content-Range: ").append(contentRange).append("\r\n");
+        }
+        headers.append("Accept-Ranges: bytes\r\nConnection: close\r\n\r\n");
+        out.write(headers.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        out.flush();
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(buffer, offset, length - offset);
+            if (read == -1) {
+                throw new IOException("Unexpected end of stream");
+            }
+            offset += read;
+        }
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                throw new IOException("Unexpected end of stream");
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * A block being fetched from the origin. Its bytes are relayed to the player as they arrive,
+     * rather than after the whole block, and written to a temporary file that is renamed into the
+     * cache once the block is complete.
+     */
+    private final class BlockFetch implements Closeable {
+        final Metadata mMetadata;
+        private final String mUrl;
+        private final File mBlock;
+        private final long mStart;
+        private final HttpURLConnection mConnection;
+
+        BlockFetch(String url, File block, long start, HttpURLConnection connection,
+                Metadata metadata) {
+            mUrl = url;
+            mBlock = block;
+            mStart = start;
+            mConnection = connection;
+            mMetadata = metadata;
+        }
+
+        /**
+         * Reads the block, relaying its bytes "position" to "end" of the video to "out", and
+         * returns the number of bytes relayed. Fewer bytes than requested are relayed if the
+         * origin fails. If the player goes away, the block is still read to the end so that it
+         * is cached for the next request, and the error is then thrown.
+         */
+        long relay(long position, long end, OutputStream out) throws IOException {
+            long blockEnd = Math.min(mStart + BLOCK_SIZE, mMetadata.mLength);
+            long relayed = 0;
+            IOException relayException = null;
+            File tempFile = null;
+            try (InputStream in = mConnection.getInputStream()) {
+                // Written to a temporary file first, so that a partial block is never served.
+                tempFile = File.createTempFile(mBlock.getName(), TEMP_SUFFIX, mCacheDirectory);
+                try (OutputStream file = new FileOutputStream(tempFile)) {
+                    byte[] buffer = new byte[RELAY_BUFFER_SIZE];
+                    long offset = mStart;
+                    while (offset < blockEnd) {
+                        int read = in.read(buffer, 0, (int) Math.min(buffer.length,
+                                blockEnd - offset));
+                        if (read == -1) {
+                            throw new IOException("Unexpected end of stream");
+                        }
+                        file.write(buffer, 0, read);
+                        long from = Math.max(offset, position);
+                        long to = Math.min(offset + read - 1, end);
+                        if (relayException == null && from <= to) {
+                            try {
+                                out.write(buffer, (int) (from - offset), (int) (to - from + 1));
+                                relayed += to - from + 1;
+                            } catch (IOException e) {
+                                relayException = e;
+                            }
+                        }
+                        offset += read;
+                    }
+                }
+                synchronized (VideoCacheProxy.this) {
+                    if (!tempFile.renameTo(mBlock)) {
+                        throw new IOException("Could not rename " + tempFile);
+                    }
+                }
+                tempFile = null;
+                trimCache();
+            } catch (IOException e) {
+                Log.e(TAG, "Fetching " + mBlock.getName() + " of " + mUrl + " failed", e);
+            } finally {
+                if (tempFile != null) {
+                    tempFile.delete();
+                }
+                close();
+            }
+            if (relayException != null) {
+                throw relayException;
+            }
+            return relayed;
+        }
+
+        @Override
+        public void close() {
+            mConnection.disconnect();
+        }
+    }
+
+    /**
+     * The parts of a player's request the proxy needs.
+     */
+    private static final class Request {
+        String mKey;
+        long mStart;
+        // The last byte requested, or -1 for the end of the video.
+        long mEnd = -1;
+        boolean mIsRange;
+        boolean mIsHead;
+
+        @Nullable
+        static Request read(InputStream in) throws IOException {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(in, StandardCharsets.ISO_8859_1));
+            String requestLine = reader.readLine();
+            if (requestLine == null) {
+                return null;
+            }
+            String[] parts = requestLine.split(" ");
+            if (parts.length < 2 || !parts[1].startsWith("/")) {
+                return null;
+            }
+            Request request = new Request();
+            request.mIsHead = "HEAD".equals(parts[0]);
+            request.mKey = parts[1].substring(1);
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Range")) {
+                    request.parseRange(line.substring(colon + 1).trim());
+                }
+            }
+            return request;
+        }
+
+        private void parseRange(String range) throws IOException {
+            if (!range.startsWith("bytes=")) {
+                return;
+            }
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            try {
+                if (bounds.length == 2 && !bounds[0].isEmpty()) {
+                    mStart = Long.parseLong(bounds[0]);
+                    mEnd = bounds[1].isEmpty() ? -1 : Long.parseLong(bounds[1]);
+                    mIsRange = true;
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad range " + range, e);
+            }
+        }
+    }
+
+    /**
+     * The length and content type of a video, stored next to its blocks.
+     */
+    private static final class Metadata {
+        private static final String SUFFIX = ".meta";
+
+        final long mLength;
+        final String mContentType;
+
+        private Metadata(long length, String contentType) {
+            mLength = length;
+            mContentType = contentType;
+        }
+
+        @Nullable
+        static Metadata read(File directory, String key) {
+            File file = new File(directory, key + SUFFIX);
+            if (!file.exists()) {
+                return null;
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), StandardCharsets.UTF_8))) {
+                long length = Long.parseLong(reader.readLine());
+                String contentType = reader.readLine();
+                return new Metadata(length, contentType != null && !contentType.isEmpty()
+                        ? contentType : DEFAULT_CONTENT_TYPE);
+            } catch (IOException | NumberFormatException e) {
+                Log.e(TAG, "Reading metadata failed " + key, e);
+                return null;
+            }
+        }
+
+        static void write(File directory, String key, long length, String contentType)
+                throws IOException {
+            File file = new File(directory, key + SUFFIX);
+            if (file.exists()) {
+                return;
+            }
+            File tempFile = File.createTempFile(file.getName(), TEMP_SUFFIX, directory);
+            try (OutputStream out = new FileOutputStream(tempFile)) {
+                out.write((length + "\n" + (contentType != null ? contentType : ""))
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+            }
+        }
+
+        static boolean isMetadata(File file) {
+            return file.getName().endsWith(SUFFIX);
+        }
+
+        static String getKey(File file) {
+            String name = file.getName();
+            return name.substring(0, name.length() - SUFFIX.length());
+        }
+    }
+}
@@ -20,10 +20,11 @@ import android.media.MediaMetadata;
 import android.media.session.PlaybackState;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.v17.leanback.app.VideoFragmentGlueHost;
-import android.support.v17.leanback.media.MediaPlayerAdapter;
 import android.support.v17.leanback.media.PlaybackBannerControlGlue;
 import android.support.v17.leanback.media.PlaybackGlue;
+import android.support.v17.leanback.media.PlayerAdapter;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
@@ -39,7 +40,8 @@ import com.google.android.tvhomescreenchannels.scheduler.DeleteWatchNextService;
 /**
  * Class for video playback fragment with media controls. It uses
  * 1. PlaybackBannerControlGlue as the glue for displaying media controls.
- * 2. MediaPlayerAdapter that uses an Android MediaPlayer.
+ * 2. The PlayerAdapter of the "VideoPlayer" selected with "VideoPlayerFactory", ExoPlayer or an
+ * Android MediaPlayer.
  * 3. VideoFragmentGlueHost which provides a SurfaceView.
  */
 public class VideoFragment extends android.support.v17.leanback.app.VideoFragment {
@@ -47,12 +49,23 @@ public class VideoFragment extends android.support.v17.leanback.app.VideoFragmen
     private static final String TAG = "VideoFragment";
     // The min watch time for a video to be considered for the watch next row.
     private static final int MIN_WATCH_TIME_FOR_WATCH_NEXT = 5000;
+    // How often the playback position is checkpointed while playing.
+    private static final long PROGRESS_CHECKPOINT_INTERVAL_MS = 10000;
     final VideoFragmentGlueHost mHost = new VideoFragmentGlueHost(VideoFragment.this);
-    private PlaybackBannerControlGlue<MediaPlayerAdapter> mMediaPlayerGlue;
+    private VideoPlayer mVideoPlayer;
+    private PlaybackBannerControlGlue<PlayerAdapter> mMediaPlayerGlue;
     private Clip mSelectedClip;
     private long mProgress;
     private MediaSessionCompat mSession;
     private boolean mCompleted = false;
+    private final Handler mHandler = new Handler();
+    private final Runnable mProgressCheckpointRunnable = new Runnable() {
+        @Override
+        public void run() {
+            recordProgress();
+            mHandler.postDelayed(this, PROGRESS_CHECKPOINT_INTERVAL_MS);
+        }
+    };
 
     static VideoFragment newInstance(Clip selectedClip, long progress) {
         VideoFragment videoFragment = new VideoFragment();
@@ -80,6 +93,11 @@ public class VideoFragment extends android.support.v17.leanback.app.VideoFragmen
                 super.onPlayStateChanged(glue);
                 mCompleted = false;
                 updatePlaybackState();
+                mHandler.removeCallbacks(mProgressCheckpointRunnable);
+                if (glue.isPlaying()) {
+                    mHandler.postDelayed(mProgressCheckpointRunnable,
+                            PROGRESS_CHECKPOINT_INTERVAL_MS);
+                }
             }
 
             @Override
@@ -99,8 +117,9 @@ public class VideoFragment extends android.support.v17.leanback.app.VideoFragmen
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        mMediaPlayerGlue = new PlaybackBannerControlGlue<MediaPlayerAdapter>(getContext(),
-                new int[]{1}, new MediaPlayerAdapter(getContext())) {
+        mVideoPlayer = VideoPlayerFactory.create(getContext());
+        mMediaPlayerGlue = new PlaybackBannerControlGlue<PlayerAdapter>(getContext(),
+                new int[]{1}, mVideoPlayer.getPlayerAdapter()) {
             @Override
             public long getSupportedActions() {
                 return PlaybackBannerControlGlue.ACTION_PLAY_PAUSE
@@ -116,7 +135,7 @@ public class VideoFragment extends android.support.v17.leanback.app.VideoFragmen
 
         mMediaPlayerGlue.setTitle(mSelectedClip.getTitle());
         mMediaPlayerGlue.setSubtitle(mSelectedClip.getDescription());
-        mMediaPlayerGlue.getPlayerAdapter().setDataSource(Uri.parse(mSelectedClip.getVideoUrl()));
+        mVideoPlayer.setDataSource(Uri.parse(mSelectedClip.getVideoUrl()));
         mSession = new MediaSessionCompat(getContext(), "TvLauncherSampleApp");
         mSession.setActive(true);
         mSession.setCallback(new MediaSessionCallback());
@@ -125,9 +144,18 @@ public class VideoFragment extends android.support.v17.leanback.app.VideoFragmen
         updateMetadata(mSelectedClip);
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        // Save the position right away rather than waiting for the next batch of checkpoints.
+        recordProgress();
+        PlaybackProgressRecorder.getInstance(getContext()).flush();
+    }
+
     @Override
     public void onStop() {
         super.onStop();
+        mHandler.removeCallbacks(mProgressCheckpointRunnable);
         mSession.release();
         if (mMediaPlayerGlue.getCurrentPosition() >= MIN_WATCH_TIME_FOR_WATCH_NEXT) {
             // Add or remove from the watch next row only if the media has been watched above a
@@ -145,12 +173,32 @@ public class VideoFragment extends android.support.v17.leanback.app.VideoFragmen
                         .build());
             } else {
                 // Remove it from the watch next row if the media has finished playing.
+                PlaybackProgressRecorder.getInstance(getContext())
+                        .clear(mSelectedClip.getClipId());
                 DeleteWatchNextService.scheduleDeleteWatchNextRequest(getContext(),
                         mSelectedClip.getClipId());
             }
         }
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mVideoPlayer.release();
+    }
+
+    /**
+     * Buffers the current position of the clip, once it has been watched long enough to be
+     * resumed from the watch next row.
+     */
+    private void recordProgress() {
+        long position = mMediaPlayerGlue.getCurrentPosition();
+        if (!mCompleted && position >= MIN_WATCH_TIME_FOR_WATCH_NEXT) {
+            PlaybackProgressRecorder.getInstance(getContext())
+                    .record(mSelectedClip.getClipId(), position);
+        }
+    }
+
     private void updatePlaybackState() {
         PlaybackStateCompat.Builder stateBuilder = new PlaybackStateCompat.Builder()
                 .setActions(getAvailableActions());
@@ -188,10 +236,9 @@ public class VideoFragment extends android.support.v17.leanback.app.VideoFragmen
         metadataBuilder.putString(MediaMetadata.METADATA_KEY_TITLE, clip.getTitle());
         metadataBuilder.putString(MediaMetadata.METADATA_KEY_ARTIST, clip.getDescription());
 
-        Glide.with(this)
-                .asBitmap()
-                .load(Uri.parse(clip.getCardImageUrl()))
-                .into(new SimpleTarget<Bitmap>(500, 500) {
+        ArtworkLoader.load(Glide.with(this), getResources(), clip,
+                ArtworkLoader.Bucket.SESSION_ART)
+                .into(new SimpleTarget<Bitmap>() {
                     @Override
                     public void onResourceReady(Bitmap bitmap, Transition transition) {
                         metadataBuilder.putBitmap(MediaMetadata.METADATA_KEY_ART, bitmap);
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.tvhomescreenchannels;
+
+import android.net.Uri;
+import android.support.v17.leanback.media.PlayerAdapter;
+
+/**
+ * A player the playback screen can play videos with. It exposes a PlayerAdapter for the playback
+ * glue, and reports its time to first frame and rebuffering through "PlaybackMetrics". Create one
+ * with "VideoPlayerFactory".
+ */
+interface VideoPlayer {
+
+    PlayerAdapter getPlayerAdapter();
+
+    /**
+     * Starts preparing the video at "uri", the url of the video itself rather than a proxy's.
+     */
+    void setDataSource(Uri uri);
+
+    /**
+     * Releases the player and reports its metrics, once the playback screen is gone.
+     */
+    void release();
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.tvhomescreenchannels;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * Creates the player selected for the playback screen. ExoPlayer is used unless the framework's
+ * MediaPlayer is selected, which is kept as a fallback and to compare the two. The selection is
+ * stored, so it can be changed at runtime by starting the playback screen with
+ * "PlaybackActivity.EXTRA_PLAYER" set to "EXOPLAYER" or "MEDIA_PLAYER".
+ */
+final class VideoPlayerFactory {
+    private static final String TAG = "VideoPlayerFactory";
+    static final String EXOPLAYER = "exoplayer";
+    static final String MEDIA_PLAYER = "mediaplayer";
+    private static final String PREFERENCES_NAME = "video_player";
+    private static final String PLAYER_KEY = "player";
+
+    private VideoPlayerFactory() {
+    }
+
+    static VideoPlayer create(Context context) {
+        if (MEDIA_PLAYER.equals(getSelectedPlayer(context))) {
+            return new MediaPlayerVideoPlayer(context);
+        }
+        return new ExoPlayerVideoPlayer(context);
+    }
+
+    /**
+     * Selects the player used from now on, "EXOPLAYER" or "MEDIA_PLAYER".
+     */
+    static void selectPlayer(Context context, String player) {
+        if (!EXOPLAYER.equals(player) && !MEDIA_PLAYER.equals(player)) {
+            Log.e(TAG, "Unknown player " + player);
+            return;
+        }
+        getPreferences(context).edit().putString(PLAYER_KEY, player).apply();
+    }
+
+    private static String getSelectedPlayer(Context context) {
+        return getPreferences(context).getString(PLAYER_KEY, EXOPLAYER);
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.tvhomescreenchannels;
+
+import android.content.Context;
+
+import java.util.Map;
+
+/**
+ * Keeps the latest view count of each published program in memory and writes them to the TV
+ * provider in a single batch. Pending counts are flushed "FLUSH_DELAY_MS" after the first of them
+ * was set, or earlier by "flush()" when the app goes to the background, so a burst of views costs
+ * one provider write per program.
+ */
+final class ViewCountWriter {
+    private static final long FLUSH_DELAY_MS = 5000;
+
+    private static ViewCountWriter sViewCountWriter = null;
+
+    // View counts by program id.
+    private final CoalescingWriter<Long, Integer> mWriter;
+
+    private ViewCountWriter(Context context) {
+        final Context appContext = context.getApplicationContext();
+        mWriter = new CoalescingWriter<>(FLUSH_DELAY_MS,
+                new CoalescingWriter.Flusher<Long, Integer>() {
+                    @Override
+                    public void write(Map<Long, Integer> viewCounts) {
+                        try (TvProviderGateway gateway = TvProviderGateway.acquire(appContext)) {
+                            SampleTvProvider.setProgramViewCounts(gateway, viewCounts);
+                        }
+                    }
+                });
+    }
+
+    static synchronized ViewCountWriter getInstance(Context context) {
+        if (sViewCountWriter == null) {
+            sViewCountWriter = new ViewCountWriter(context);
+        }
+        return sViewCountWriter;
+    }
+
+    /**
+     * Sets the view count of the program "programId", replacing any count not yet written.
+     */
+    void setViewCount(long programId, int viewCount) {
+        mWriter.put(programId, viewCount);
+    }
+
+    /**
+     * Writes the pending view counts on a background thread.
+     */
+    void flush() {
+        mWriter.flush();
+    }
+}
@@ -16,13 +16,16 @@ package com.google.android.tvhomescreenchannels.presenters;
 
 import android.content.Context;
 import android.content.res.Resources;
-import android.support.media.tv.TvContractCompat;
+import android.graphics.Bitmap;
 import android.support.v17.leanback.widget.ImageCardView;
+import android.support.v17.leanback.widget.ObjectAdapter;
 import android.support.v17.leanback.widget.Presenter;
 import android.support.v4.content.ContextCompat;
 import android.view.ViewGroup;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestBuilder;
+import com.google.android.tvhomescreenchannels.ArtworkLoader;
 import com.google.android.tvhomescreenchannels.Clip;
 import com.google.android.tvhomescreenchannels.R;
 
@@ -31,6 +34,8 @@ import com.google.android.tvhomescreenchannels.R;
  * It contains an ImageCardView to render each clip within each playlist row.
  */
 public class CardPresenter extends Presenter {
+    // The number of cards ahead of the selected card whose images are preloaded.
+    private static final int PRELOAD_COUNT = 4;
     private static int sSelectedBackgroundColor;
     private static int sDefaultBackgroundColor;
 
@@ -44,22 +49,6 @@ public class CardPresenter extends Presenter {
 
     ;
 
-    private static float getWidthMultplier(int aspectRatio) {
-        switch (aspectRatio) {
-            case TvContractCompat.PreviewProgramColumns.ASPECT_RATIO_16_9:
-                return 16.0f / 9.0f;
-            case TvContractCompat.PreviewProgramColumns.ASPECT_RATIO_3_2:
-                return 3.0f / 2.0f;
-            case TvContractCompat.PreviewProgramColumns.ASPECT_RATIO_2_3:
-                return 2.0f / 3.0f;
-            case TvContractCompat.PreviewProgramColumns.ASPECT_RATIO_4_3:
-                return 4.0f / 3.0f;
-            case TvContractCompat.PreviewProgramColumns.ASPECT_RATIO_1_1:
-            default:
-                return 1.0f;
-        }
-    }
-
     @Override
     public ViewHolder onCreateViewHolder(ViewGroup parent) {
         Context context = parent.getContext();
@@ -88,25 +77,52 @@ public class CardPresenter extends Presenter {
             Resources resources = cardView.getContext().getResources();
             cardView.setTitleText(clip.getTitle());
             cardView.setContentText(clip.getDescription());
-            float widthMultiplier = getWidthMultplier(clip.getAspectRatio());
-            int cardWidth = Math.round(resources.getDimensionPixelSize(R.dimen.card_width)
-                    * widthMultiplier);
-            int cardHeight = resources.getDimensionPixelSize(R.dimen.card_height);
-            cardView.setMainImageDimensions(cardWidth, cardHeight);
-            Glide.with(viewHolder.view.getContext())
-                    .load(clip.getCardImageUrl())
-                    .into(cardView.getMainImageView());
+            cardView.setMainImageDimensions(
+                    ArtworkLoader.getWidth(resources, clip.getAspectRatio(),
+                            ArtworkLoader.Bucket.CARD),
+                    ArtworkLoader.getHeight(resources, ArtworkLoader.Bucket.CARD));
+            loadCardImage(cardView.getContext(), clip).into(cardView.getMainImageView());
         }
     }
 
     @Override
     public void onUnbindViewHolder(Presenter.ViewHolder viewHolder) {
         ImageCardView cardView = (ImageCardView) viewHolder.view;
-        // Remove references to images so that the garbage collector can free up memory
+        // Cancel any load still in flight and return the bitmap to Glide's pool, so that it is
+        // reused by the next card rather than left for the garbage collector.
+        Glide.with(cardView.getContext()).clear(cardView.getMainImageView());
         cardView.setBadgeImage(null);
         cardView.setMainImage(null);
     }
 
+    /**
+     * Loads the card images of up to "PRELOAD_COUNT" clips of "rowAdapter" after "position" in
+     * "direction" (1 for the following clips and -1 for the preceding ones) into Glide's memory
+     * cache, so that they are ready to show when the cards are bound.
+     */
+    public static void preloadCardImages(Context context, ObjectAdapter rowAdapter, int position,
+            int direction) {
+        for (int i = 1; i <= PRELOAD_COUNT; ++i) {
+            int preloadPosition = position + i * direction;
+            if (preloadPosition < 0 || preloadPosition >= rowAdapter.size()) {
+                return;
+            }
+            Object item = rowAdapter.get(preloadPosition);
+            if (item instanceof Clip && ((Clip) item).getCardImageUrl() != null) {
+                loadCardImage(context, (Clip) item).preload();
+            }
+        }
+    }
+
+    /**
+     * Requests the card image of "clip" in the "CARD" bucket. Binding and preloading must use the
+     * same request for the preloaded images to be found in the cache.
+     */
+    private static RequestBuilder<Bitmap> loadCardImage(Context context, Clip clip) {
+        return ArtworkLoader.load(Glide.with(context), context.getResources(), clip,
+                ArtworkLoader.Bucket.CARD);
+    }
+
     public static final class CardViewHolder extends ViewHolder {
 
         CardViewHolder(ImageCardView view) {
@@ -25,6 +25,7 @@ import android.os.PersistableBundle;
 import android.util.Log;
 
 import com.google.android.tvhomescreenchannels.SampleTvProvider;
+import com.google.android.tvhomescreenchannels.TvProviderGateway;
 
 /**
  * The service that's scheduled to run the task of adding a video to the watch next playlist
@@ -108,7 +109,9 @@ public class AddWatchNextService extends JobService {
                     .setCardImageUrl(cardImageURL)
                     .build();
 
-            SampleTvProvider.addWatchNextContinue(getApplicationContext(), clipData);
+            try (TvProviderGateway gateway = TvProviderGateway.acquire(getApplicationContext())) {
+                SampleTvProvider.addWatchNextContinue(gateway, clipData);
+            }
             return null;
 
         }
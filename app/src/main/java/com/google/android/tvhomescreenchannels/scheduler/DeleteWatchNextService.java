@@ -25,6 +25,7 @@ import android.os.PersistableBundle;
 import android.util.Log;
 
 import com.google.android.tvhomescreenchannels.SampleTvProvider;
+import com.google.android.tvhomescreenchannels.TvProviderGateway;
 
 /**
  * The service that's scheduled to run the task of deleting a video from the watch next playlist
@@ -80,7 +81,9 @@ public class DeleteWatchNextService extends JobService {
             }
 
             String clipId = bundle.getString(ID_KEY);
-            SampleTvProvider.deleteWatchNextContinue(getApplicationContext(), clipId);
+            try (TvProviderGateway gateway = TvProviderGateway.acquire(getApplicationContext())) {
+                SampleTvProvider.deleteWatchNextContinue(gateway, clipId);
+            }
             return null;
         }
     }